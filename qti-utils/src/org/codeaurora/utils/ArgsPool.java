@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import android.os.Looper;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Lock-free instance pool behind {@link SomeArgs} and the primitive
+ * argument holders.
+ *
+ * On Looper threads a small per-thread cache sits in front of a shared
+ * Treiber stack. Other threads, which may be short-lived and would take
+ * their cached instances with them, use the shared stack directly. Only
+ * whole-stack detach is used for removal, which keeps the stack free of
+ * ABA problems without stamped references.
+ */
+/*package*/ final class ArgsPool<T extends ArgsPool.Entry> {
+
+    private static final int LOCAL_CACHE_SIZE = 4;
+    private static final Entry[] NO_LOCAL_CACHE = new Entry[0];
+    // Obtains per adaptive sizing window
+    private static final int SIZING_WINDOW = 1024;
+
+    /*package*/ abstract static class Entry {
+        Entry mNext;
+        boolean mInPool;
+
+        /** Resets every argument slot. */
+        abstract void clear();
+    }
+
+    private final String mName;
+    private final int mDefaultMaxSize;
+    private final int mMaxAdaptiveSize;
+    private final Supplier<T> mFactory;
+
+    private final AtomicReference<Entry> mShared = new AtomicReference<>();
+    private final AtomicInteger mSharedSize = new AtomicInteger();
+    private volatile int mMaxSize;
+    private volatile boolean mAdaptive;
+    // Instances obtained and not yet recycled; tracked whether or not
+    // adaptive sizing is on, so toggling it cannot skew the count. Leaked
+    // instances are never recycled, so this drifts up over time.
+    private final AtomicInteger mOutstanding = new AtomicInteger();
+    // Lowest and highest mOutstanding seen in the current sizing window.
+    // Their difference is the peak demand, which leaks do not inflate.
+    // Updated racily; an occasional lost update only skews one window.
+    private final AtomicInteger mWindowObtains = new AtomicInteger();
+    private volatile int mWindowLow;
+    private volatile int mWindowHigh;
+    private final LongAdder mHits = new LongAdder();
+    private final LongAdder mMisses = new LongAdder();
+    private final LongAdder mContention = new LongAdder();
+    private final ThreadLocal<Entry[]> mLocal;
+
+    /*package*/ ArgsPool(String name, int maxSize, Supplier<T> factory) {
+        this(name, maxSize, maxSize, factory);
+    }
+
+    /**
+     * @param maxSize cap for the shared stack
+     * @param maxAdaptiveSize highest cap adaptive sizing may raise it to
+     */
+    /*package*/ ArgsPool(String name, int maxSize, int maxAdaptiveSize, Supplier<T> factory) {
+        mName = name;
+        mDefaultMaxSize = maxSize;
+        mMaxAdaptiveSize = maxAdaptiveSize;
+        mMaxSize = maxSize;
+        mFactory = factory;
+        mLocal = ThreadLocal.withInitial(() -> Looper.myLooper() != null
+                ? new Entry[LOCAL_CACHE_SIZE] : NO_LOCAL_CACHE);
+    }
+
+    @SuppressWarnings("unchecked")
+    /*package*/ T obtain() {
+        Entry[] local = mLocal.get();
+        Entry e = null;
+        for (int i = local.length - 1; i >= 0; i--) {
+            if (local[i] != null) {
+                e = local[i];
+                local[i] = null;
+                break;
+            }
+        }
+        if (e == null) {
+            e = refill(local);
+        }
+        int outstanding = mOutstanding.incrementAndGet();
+        if (mAdaptive) {
+            onObtainAdaptive(outstanding);
+        }
+        if (e == null) {
+            mMisses.increment();
+            return mFactory.get();
+        }
+        e.mInPool = false;
+        mHits.increment();
+        return (T) e;
+    }
+
+    /*package*/ void recycle(T t) {
+        if (t.mInPool) {
+            throw new IllegalStateException("Already recycled.");
+        }
+        t.clear();
+        t.mInPool = true;
+        int outstanding = mOutstanding.decrementAndGet();
+        if (mAdaptive && outstanding < mWindowLow) {
+            mWindowLow = outstanding;
+        }
+        Entry[] local = mLocal.get();
+        for (int i = 0; i < local.length; i++) {
+            if (local[i] == null) {
+                local[i] = t;
+                return;
+            }
+        }
+        if (mSharedSize.incrementAndGet() > mMaxSize) {
+            mSharedSize.decrementAndGet();
+            return;
+        }
+        push(t, t);
+    }
+
+    /**
+     * When enabled, the shared stack follows the peak number of instances in
+     * use at once: it grows to a new peak at once, up to the adaptive limit,
+     * and decays by half the excess each window in which demand stays lower.
+     */
+    /*package*/ void setAdaptiveSizing(boolean enabled) {
+        if (enabled) {
+            mWindowLow = mWindowHigh = mOutstanding.get();
+            mWindowObtains.set(0);
+        }
+        mAdaptive = enabled;
+        if (!enabled) {
+            mMaxSize = mDefaultMaxSize;
+        }
+    }
+
+    private void onObtainAdaptive(int outstanding) {
+        if (outstanding > mWindowHigh) {
+            mWindowHigh = outstanding;
+        }
+        int demand = mWindowHigh - mWindowLow;
+        int max = mMaxSize;
+        if (demand > max) {
+            mMaxSize = max = Math.min(demand, mMaxAdaptiveSize);
+        }
+        if (mWindowObtains.incrementAndGet() % SIZING_WINDOW == 0) {
+            if (demand < max) {
+                mMaxSize = Math.max(mDefaultMaxSize, max - (max - demand + 1) / 2);
+            }
+            mWindowLow = mWindowHigh = outstanding;
+        }
+    }
+
+    /*package*/ long getHits() {
+        return mHits.sum();
+    }
+
+    /*package*/ long getMisses() {
+        return mMisses.sum();
+    }
+
+    /*package*/ long getContention() {
+        return mContention.sum();
+    }
+
+    /*package*/ void dump(PrintWriter pw) {
+        pw.println(mName + " pool: hits=" + getHits() + " misses=" + getMisses()
+                + " contention=" + getContention() + " outstanding=" + mOutstanding.get()
+                + " shared=" + mSharedSize.get() + "/" + mMaxSize);
+    }
+
+    /**
+     * Moves the shared stack into @param local, returning one instance or
+     * null if the shared stack was empty.
+     */
+    private Entry refill(Entry[] local) {
+        Entry head = mShared.getAndSet(null);
+        if (head == null) {
+            return null;
+        }
+        Entry first = head;
+        head = head.mNext;
+        first.mNext = null;
+        int taken = 1;
+        for (int i = 0; i < local.length && head != null; i++) {
+            Entry next = head.mNext;
+            head.mNext = null;
+            local[i] = head;
+            head = next;
+            taken++;
+        }
+        if (head != null) {
+            // Hand the remainder back to the other threads
+            Entry tail = head;
+            while (tail.mNext != null) {
+                tail = tail.mNext;
+            }
+            push(head, tail);
+        }
+        mSharedSize.addAndGet(-taken);
+        return first;
+    }
+
+    /** Pushes the chain head..tail onto the shared stack. */
+    private void push(Entry head, Entry tail) {
+        while (true) {
+            Entry top = mShared.get();
+            tail.mNext = top;
+            if (mShared.compareAndSet(top, head)) {
+                return;
+            }
+            mContention.increment();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import android.os.SystemClock;
+
+/**
+ * {@link LogSink} that queues records in a preallocated ring buffer and
+ * writes them to a delegate sink on a background thread, keeping the
+ * logd write off the caller's thread.
+ *
+ * When the buffer is full the oldest record is overwritten and counted
+ * in {@link #getDroppedCount}. A summary line is written once the writer
+ * catches up so drops show up in the log itself.
+ *
+ * @hide
+ */
+public final class AsyncLogSink implements LogSink {
+
+    private static final String TAG = "AsyncLogSink";
+    private static final int BATCH_SIZE = 32;
+
+    private static final class Record {
+        int mPriority;
+        String mTag;
+        String mMsg;
+        Throwable mThrowable;
+
+        void set(int priority, String tag, String msg, Throwable tr) {
+            mPriority = priority;
+            mTag = tag;
+            mMsg = msg;
+            mThrowable = tr;
+        }
+
+        void moveTo(Record other) {
+            other.set(mPriority, mTag, mMsg, mThrowable);
+            set(0, null, null, null);
+        }
+    }
+
+    private final LogSink mDelegate;
+    private final Record[] mRing;
+    private final Object mLock = new Object();
+    private final Thread mWriter;
+
+    // Guarded by mLock
+    private int mHead;
+    private int mCount;
+    private long mDropped;
+    private long mDroppedReported;
+    private boolean mWriting;
+    // Set by shutdown(); the writer drains the ring and then sets mShutdown
+    private boolean mStopping;
+    // Set once the ring is empty and the writer has exited; records are
+    // then written synchronously
+    private boolean mShutdown;
+
+    /**
+     * @param delegate sink the background thread writes to, usually
+     *        {@link Log#androidSink}
+     * @param capacity number of records buffered before dropping
+     */
+    public AsyncLogSink(LogSink delegate, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        mDelegate = delegate;
+        mRing = new Record[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mRing[i] = new Record();
+        }
+        mWriter = new Thread(this::drainLoop, TAG);
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    @Override
+    public void println(int priority, String tag, String msg, Throwable tr) {
+        synchronized (mLock) {
+            if (mShutdown) {
+                mDelegate.println(priority, tag, msg, tr);
+                return;
+            }
+            if (mCount == mRing.length) {
+                // Drop the oldest record
+                mHead = (mHead + 1) % mRing.length;
+                mCount--;
+                mDropped++;
+            }
+            mRing[(mHead + mCount) % mRing.length].set(priority, tag, msg, tr);
+            mCount++;
+            if (mCount == 1) {
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    public long getDroppedCount() {
+        synchronized (mLock) {
+            return mDropped;
+        }
+    }
+
+    /**
+     * Waits until every record queued so far has been written, or until
+     * @param timeoutMillis elapses.
+     *
+     * @return true if the buffer was drained.
+     */
+    public boolean flush(long timeoutMillis) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+        synchronized (mLock) {
+            while (mCount > 0 || mWriting) {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                mLock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Stops the writer after draining what is queued, including records
+     * logged while it drains, and waits for it to finish. Later records are
+     * written synchronously to the delegate, after everything queued.
+     */
+    public void shutdown() {
+        synchronized (mLock) {
+            mStopping = true;
+            mLock.notifyAll();
+        }
+        if (Thread.currentThread() == mWriter) {
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mWriter.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        Record[] batch = new Record[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch[i] = new Record();
+        }
+        while (true) {
+            int n;
+            long dropped;
+            synchronized (mLock) {
+                mWriting = false;
+                mLock.notifyAll();
+                while (mCount == 0) {
+                    if (mStopping) {
+                        mShutdown = true;
+                        return;
+                    }
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        // Finish what is queued, then stop
+                        mStopping = true;
+                    }
+                }
+                n = Math.min(mCount, BATCH_SIZE);
+                for (int i = 0; i < n; i++) {
+                    mRing[mHead].moveTo(batch[i]);
+                    mHead = (mHead + 1) % mRing.length;
+                }
+                mCount -= n;
+                mWriting = true;
+                dropped = mDropped - mDroppedReported;
+                mDroppedReported = mDropped;
+            }
+            if (dropped > 0) {
+                mDelegate.println(android.util.Log.WARN, TAG,
+                        "dropped " + dropped + " log records", null);
+            }
+            for (int i = 0; i < n; i++) {
+                Record r = batch[i];
+                try {
+                    mDelegate.println(r.mPriority, r.mTag, r.mMsg, r.mThrowable);
+                } catch (RuntimeException e) {
+                    // Keep draining; a failing delegate must not stop logging
+                }
+                r.set(0, null, null, null);
+            }
+        }
+    }
+}
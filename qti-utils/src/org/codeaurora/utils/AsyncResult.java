@@ -34,6 +34,15 @@ public class AsyncResult
     public Throwable exception;
     public Object result;
 
+    private static final int MAX_POOL_SIZE = 32;
+
+    private static AsyncResult sPool;
+    private static int sPoolSize;
+    private static final Object sPoolLock = new Object();
+
+    private AsyncResult mNext;
+    private boolean mInPool;
+
     /***************************** Class Methods *****************************/
 
     /** Saves and sets m.obj */
@@ -62,6 +71,61 @@ public class AsyncResult
         return ret;
     }
 
+    /**
+     * Returns an instance from the shared pool, or a new one if the pool
+     * is empty. The receiver must call {@link #recycle} once it has
+     * finished with it and must not touch it afterwards.
+     */
+    public static AsyncResult
+    obtain(Object uo, Object r, Throwable ex)
+    {
+        AsyncResult ret = null;
+
+        synchronized (sPoolLock) {
+            if (sPoolSize > 0) {
+                ret = sPool;
+                sPool = ret.mNext;
+                ret.mNext = null;
+                ret.mInPool = false;
+                sPoolSize--;
+            }
+        }
+
+        if (ret == null) {
+            return new AsyncResult(uo, r, ex);
+        }
+
+        ret.userObj = uo;
+        ret.result = r;
+        ret.exception = ex;
+        return ret;
+    }
+
+    /**
+     * Returns this instance to the pool. Fields are cleared, so any
+     * reference kept past this call sees nulls or a later reuse.
+     */
+    public void
+    recycle()
+    {
+        if (mInPool) {
+            throw new IllegalStateException("Already recycled.");
+        }
+
+        userObj = null;
+        result = null;
+        exception = null;
+
+        synchronized (sPoolLock) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                mNext = sPool;
+                mInPool = true;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+
     /** please note, this sets m.obj to be this */
     public
     AsyncResult (Object uo, Object r, Throwable ex)
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import android.os.SystemClock;
+import android.net.Network;
+import android.net.TrafficStats;
+import android.util.Log;
+
+import com.android.internal.util.TrafficStatsConstants;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * {@hide}
+ *
+ * Non-blocking SNTP client.
+ *
+ * All requests share one non-blocking DatagramChannel, serviced by a single
+ * selector thread, so any number of requests can be outstanding without
+ * parking the callers' threads. Replies are matched to their requests by the
+ * echoed transmit time stamp.
+ *
+ * Futures are completed on the client thread; callers doing more than a
+ * trivial amount of work should chain with the *Async variants.
+ *
+ * Sample usage:
+ * <pre>AsyncSntpClient client = new AsyncSntpClient(network);
+ * client.requestTime(address, 123, 5000).thenAccept(result -> {
+ *     long now = result.getNtpTime() + SystemClock.elapsedRealtime()
+ *             - result.getNtpTimeReference();
+ * });
+ * </pre>
+ */
+public class AsyncSntpClient implements Closeable {
+    private static final String TAG = "AsyncSntpClient";
+    private static final boolean DBG = true;
+
+    /** Outcome of one successful SNTP exchange. */
+    public static final class Result {
+        private final long mNtpTime;
+        private final long mNtpTimeReference;
+        private final long mRoundTripTime;
+        private final long mClockOffset;
+
+        private Result(SntpClient.Sample sample) {
+            mNtpTime = sample.ntpTime;
+            mNtpTimeReference = sample.ntpTimeReference;
+            mRoundTripTime = sample.roundTripTime;
+            mClockOffset = sample.clockOffset;
+        }
+
+        /** @return time value computed from the NTP server response. */
+        public long getNtpTime() {
+            return mNtpTime;
+        }
+
+        /** @return value of SystemClock.elapsedRealtime() corresponding to the NTP time. */
+        public long getNtpTimeReference() {
+            return mNtpTimeReference;
+        }
+
+        /** @return round trip time in milliseconds. */
+        public long getRoundTripTime() {
+            return mRoundTripTime;
+        }
+
+        /** @return offset of the server clock from System.currentTimeMillis(), in milliseconds. */
+        public long getClockOffset() {
+            return mClockOffset;
+        }
+
+        @Override
+        public String toString() {
+            return "[Result: ntpTime=" + mNtpTime + ", reference=" + mNtpTimeReference
+                    + ", roundTrip=" + mRoundTripTime + "ms, offset=" + mClockOffset + "ms]";
+        }
+    }
+
+    private static final class Request {
+        final SocketAddress address;
+        final long deadline;
+        final CompletableFuture<Result> future = new CompletableFuture<>();
+        // T1 as sent, and SystemClock.elapsedRealtimeNanos() when it was taken
+        long transmitTime;
+        long requestNanos;
+
+        Request(SocketAddress address, long deadline) {
+            this.address = address;
+            this.deadline = deadline;
+        }
+    }
+
+    private final DatagramChannel mChannel;
+    private final Selector mSelector;
+    private final Thread mThread;
+    private final ConcurrentLinkedQueue<Request> mSubmitted = new ConcurrentLinkedQueue<>();
+    private volatile boolean mClosed;
+
+    // Accessed only on mThread; keyed by the transmit time stamp of each request
+    private final HashMap<Long, Request> mPending = new HashMap<>();
+    private final NtpPacketCodec mCodec = new NtpPacketCodec();
+    private final ByteBuffer mBuffer = mCodec.buffer();
+
+    /**
+     * Creates a client whose requests are sent over @param network.
+     */
+    public AsyncSntpClient(Network network) throws IOException {
+        final int oldTag =
+                TrafficStats.getAndSetThreadStatsTag(TrafficStatsConstants.TAG_SYSTEM_NTP);
+        DatagramChannel channel = null;
+        Selector selector = null;
+        try {
+            channel = DatagramChannel.open();
+            network.bindSocket(channel.socket());
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            if (selector != null) {
+                selector.close();
+            }
+            throw e;
+        } finally {
+            TrafficStats.setThreadStatsTag(oldTag);
+        }
+        mChannel = channel;
+        mSelector = selector;
+        mThread = new Thread(this::run, TAG);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Sends an SNTP request to the given server.
+     *
+     * @param timeout network timeout in milliseconds.
+     * @return a future completed with the result, or exceptionally with a
+     *         SocketTimeoutException, an IOException or an invalid reply error.
+     */
+    public CompletableFuture<Result> requestTime(InetAddress address, int port, int timeout) {
+        Request request = new Request(new InetSocketAddress(address, port),
+                SystemClock.elapsedRealtime() + timeout);
+        if (mClosed) {
+            request.future.completeExceptionally(new IOException("client closed"));
+            return request.future;
+        }
+        mSubmitted.add(request);
+        if (mClosed && mSubmitted.remove(request)) {
+            // Lost the race with the client thread shutting down
+            request.future.completeExceptionally(new IOException("client closed"));
+        }
+        mSelector.wakeup();
+        return request.future;
+    }
+
+    /**
+     * Sends an SNTP request to the standard NTP port of the given server.
+     */
+    public CompletableFuture<Result> requestTime(InetAddress address, int timeout) {
+        return requestTime(address, SntpClient.NTP_PORT, timeout);
+    }
+
+    /**
+     * Stops the client thread, fails all outstanding requests and releases the
+     * socket. Unless called from a future callback running on the client
+     * thread, this returns only once all of that is done.
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        mSelector.wakeup();
+        if (Thread.currentThread() == mThread) {
+            // run() finishes the shutdown once the current callback returns
+            return;
+        }
+        boolean interrupted = false;
+        while (mThread.isAlive()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!mClosed) {
+                sendSubmitted();
+                final long now = SystemClock.elapsedRealtime();
+                final long wait = expire(now);
+                if (wait == 0) {
+                    mSelector.select();
+                } else {
+                    mSelector.select(wait);
+                }
+                mSelector.selectedKeys().clear();
+                receive();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "client thread failed", e);
+        } finally {
+            mClosed = true;
+            failAll(new IOException("client closed"));
+            try {
+                mSelector.close();
+                mChannel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private void sendSubmitted() {
+        Request request;
+        while ((request = mSubmitted.poll()) != null) {
+            if (request.future.isDone()) {
+                continue;
+            }
+            final long requestTime = System.currentTimeMillis();
+            request.requestNanos = SystemClock.elapsedRealtimeNanos();
+            // The bits below a millisecond are random; draw again until the key is unique
+            long key;
+            do {
+                key = mCodec.encodeRequest(requestTime);
+            } while (mPending.containsKey(key));
+            request.transmitTime = key;
+            try {
+                if (mChannel.send(mBuffer, request.address) == 0) {
+                    throw new IOException("send buffer full");
+                }
+                mPending.put(key, request);
+            } catch (IOException e) {
+                if (DBG) Log.d(TAG, "request to " + request.address + " failed: " + e);
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Fails requests whose deadline has passed and returns the time until the
+     * next deadline, or 0 if nothing is pending.
+     */
+    private long expire(long now) {
+        long wait = 0;
+        Iterator<Request> it = mPending.values().iterator();
+        while (it.hasNext()) {
+            Request request = it.next();
+            final long remaining = request.deadline - now;
+            if (remaining <= 0 || request.future.isDone()) {
+                it.remove();
+                request.future.completeExceptionally(
+                        new SocketTimeoutException("no reply from " + request.address));
+            } else if (wait == 0 || remaining < wait) {
+                wait = remaining;
+            }
+        }
+        return wait;
+    }
+
+    private void receive() throws IOException {
+        while (true) {
+            mBuffer.clear();
+            final SocketAddress from = mChannel.receive(mBuffer);
+            if (from == null) {
+                return;
+            }
+            final long responseNanos = SystemClock.elapsedRealtimeNanos();
+            if (!mCodec.decode()) {
+                continue;
+            }
+            final long key = mCodec.getOriginateTime();
+            final Request request = mPending.get(key);
+            if (request == null || !request.address.equals(from)) {
+                continue;
+            }
+            mPending.remove(key);
+            try {
+                request.future.complete(new Result(SntpClient.parseResponse(mCodec,
+                        new SntpClient.Sample(), request.transmitTime, request.requestNanos,
+                        responseNanos)));
+            } catch (SntpClient.InvalidServerReplyException e) {
+                if (DBG) Log.d(TAG, "reply from " + from + " rejected: " + e);
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void failAll(IOException e) {
+        for (Request request : mPending.values()) {
+            request.future.completeExceptionally(e);
+        }
+        mPending.clear();
+        Request request;
+        while ((request = mSubmitted.poll()) != null) {
+            request.future.completeExceptionally(e);
+        }
+    }
+}
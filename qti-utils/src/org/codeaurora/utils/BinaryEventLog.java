@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import android.os.SystemClock;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Always-on binary trace of telephony events.
+ *
+ * Each event is a fixed-size record holding an event ID and two long
+ * payload values, written into a memory-mapped circular file. Logging an
+ * event costs an atomic increment and a few buffer stores; there is no
+ * formatting and no syscall. Use {@link BinaryEventLogDecoder} to turn a
+ * file back into text.
+ *
+ * File layout, little endian:
+ * <pre>
+ *   header:  int magic, int version, int recordSize, int capacity
+ *   records: long seq + 1, long elapsedRealtimeNanos, int eventId,
+ *            int threadId, long arg1, long arg2
+ * </pre>
+ * The sequence number is cleared before and written after the payload,
+ * with release fences in between, so a reader that checks it before and
+ * after reading the payload (with acquire fences) can tell complete records
+ * from partially written or never-written slots. The fences order the stores
+ * as seen by any CPU, including a decoder in another process mapping the
+ * same file; they say nothing about when the data reaches storage, for
+ * which see {@link #sync}.
+ *
+ * @hide
+ */
+public final class BinaryEventLog implements Closeable {
+
+    /** RIL error response: arg1 = RIL request ID, arg2 = RIL errno. */
+    public static final int EVENT_RIL_ERROR = 3;
+    /**
+     * RegistrantList fan-out: arg1 = list trace id in the high 32 bits and
+     * registrant count in the low 32 bits, arg2 = duration in ns.
+     */
+    public static final int EVENT_REGISTRANT_FAN_OUT = 4;
+
+    /*package*/ static final int MAGIC = 0x51544c47; // "QTLG"
+    /*package*/ static final int VERSION = 2;
+    /*package*/ static final int HEADER_SIZE = 16;
+    /*package*/ static final int RECORD_SIZE = 40;
+    // The decoder packs slot indexes into 20 bits when sorting
+    /*package*/ static final int MAX_CAPACITY = 1 << 20;
+
+    private static volatile BinaryEventLog sDefault;
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+    private final AtomicLong mNextSeq = new AtomicLong();
+
+    private BinaryEventLog(RandomAccessFile file, MappedByteBuffer buffer, int capacity,
+            long nextSeq) {
+        mFile = file;
+        mBuffer = buffer;
+        mCapacity = capacity;
+        mNextSeq.set(nextSeq);
+    }
+
+    /**
+     * Opens or creates @param file holding @param capacity records. An
+     * existing file with a matching layout is appended to; anything else
+     * is overwritten.
+     */
+    public static BinaryEventLog open(File file, int capacity) throws IOException {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity out of range: " + capacity);
+        }
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            boolean reuse = raf.length() == size;
+            raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            long nextSeq = 0;
+            if (reuse && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+                    && buffer.getInt(8) == RECORD_SIZE && buffer.getInt(12) == capacity) {
+                for (int i = 0; i < capacity; i++) {
+                    nextSeq = Math.max(nextSeq, buffer.getLong(HEADER_SIZE + i * RECORD_SIZE));
+                }
+            } else {
+                for (long off = 0; off < size; off += 8) {
+                    buffer.putLong((int) off, 0);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, RECORD_SIZE);
+                buffer.putInt(12, capacity);
+            }
+            return new BinaryEventLog(raf, buffer, capacity, nextSeq);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /** Sets the process-wide log used by built-in trace points, or null. */
+    public static void setDefault(BinaryEventLog log) {
+        sDefault = log;
+    }
+
+    public static BinaryEventLog getDefault() {
+        return sDefault;
+    }
+
+    public void log(int eventId, long arg1, long arg2) {
+        long seq = mNextSeq.getAndIncrement();
+        int off = HEADER_SIZE + (int) (seq % mCapacity) * RECORD_SIZE;
+        // Invalidate the slot first so a reader never pairs the old
+        // sequence number with new payload
+        mBuffer.putLong(off, 0);
+        VarHandle.releaseFence();
+        mBuffer.putLong(off + 8, SystemClock.elapsedRealtimeNanos());
+        mBuffer.putInt(off + 16, eventId);
+        mBuffer.putInt(off + 20, (int) Thread.currentThread().getId());
+        mBuffer.putLong(off + 24, arg1);
+        mBuffer.putLong(off + 32, arg2);
+        // Publish: the payload stores must be visible before the sequence number
+        VarHandle.releaseFence();
+        mBuffer.putLong(off, seq + 1);
+    }
+
+    public long getLoggedCount() {
+        return mNextSeq.get();
+    }
+
+    /** Forces the mapped records out to the file. */
+    public void sync() {
+        mBuffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (sDefault == this) {
+            sDefault = null;
+        }
+        mBuffer.force();
+        mFile.close();
+    }
+}
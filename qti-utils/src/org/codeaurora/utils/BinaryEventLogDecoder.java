@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Turns a {@link BinaryEventLog} file back into readable text, oldest
+ * record first.
+ *
+ * Usage: {@code BinaryEventLogDecoder <file>}
+ *
+ * @hide
+ */
+public final class BinaryEventLogDecoder {
+
+    private BinaryEventLogDecoder() {
+        /* static utility */
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: BinaryEventLogDecoder <file>");
+            System.exit(1);
+        }
+        PrintWriter pw = new PrintWriter(System.out);
+        decode(new File(args[0]), pw);
+        pw.flush();
+    }
+
+    public static void decode(File file, PrintWriter pw) throws IOException {
+        byte[] bytes;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+        }
+        decode(ByteBuffer.wrap(bytes), pw);
+    }
+
+    public static void decode(ByteBuffer buffer, PrintWriter pw) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < BinaryEventLog.HEADER_SIZE
+                || buffer.getInt(0) != BinaryEventLog.MAGIC) {
+            throw new IOException("Not a binary event log");
+        }
+        int version = buffer.getInt(4);
+        int recordSize = buffer.getInt(8);
+        int capacity = buffer.getInt(12);
+        if (version != BinaryEventLog.VERSION || recordSize != BinaryEventLog.RECORD_SIZE
+                || capacity <= 0 || capacity > BinaryEventLog.MAX_CAPACITY
+                || buffer.limit() < BinaryEventLog.HEADER_SIZE + (long) capacity * recordSize) {
+            throw new IOException("Unsupported layout: version " + version
+                    + " recordSize " + recordSize + " capacity " + capacity);
+        }
+
+        // Order slots by sequence number, skipping empty or torn ones
+        long[] order = new long[capacity];
+        int n = 0;
+        for (int i = 0; i < capacity; i++) {
+            long seq = buffer.getLong(BinaryEventLog.HEADER_SIZE + i * recordSize);
+            if (seq != 0) {
+                order[n++] = ((seq - 1) << 20) | i;
+            }
+        }
+        Arrays.sort(order, 0, n);
+
+        for (int k = 0; k < n; k++) {
+            int off = BinaryEventLog.HEADER_SIZE + (int) (order[k] & 0xfffff) * recordSize;
+            long stamp = buffer.getLong(off);
+            VarHandle.acquireFence();
+            long nanos = buffer.getLong(off + 8);
+            int event = buffer.getInt(off + 16);
+            int tid = buffer.getInt(off + 20);
+            long arg1 = buffer.getLong(off + 24);
+            long arg2 = buffer.getLong(off + 32);
+            VarHandle.acquireFence();
+            if (stamp == 0 || buffer.getLong(off) != stamp) {
+                // Rewritten while we read it, when decoding a live mapping
+                continue;
+            }
+            long seq = stamp - 1;
+            pw.println(seq + " " + formatTime(nanos) + " tid=" + tid + " "
+                    + formatEvent(event, arg1, arg2));
+        }
+    }
+
+    /*package*/ static String formatEvent(int event, long arg1, long arg2) {
+        switch (event) {
+            case BinaryEventLog.EVENT_RIL_ERROR:
+                return "RIL_ERROR request=" + arg1 + " errno=" + arg2;
+            case BinaryEventLog.EVENT_REGISTRANT_FAN_OUT:
+                return "REGISTRANT_FAN_OUT list=" + Integer.toHexString((int) (arg1 >>> 32))
+                        + " registrants=" + (int) arg1 + " took=" + arg2 / 1000 + "us";
+            default:
+                return "EVENT_" + event + " arg1=" + arg1 + " arg2=" + arg2;
+        }
+    }
+
+    private static String formatTime(long nanos) {
+        long millis = nanos / 1000000;
+        return String.format("%d.%03d", millis / 1000, millis % 1000);
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import java.util.Arrays;
+
+/**
+ * Packed, reusable container for a set of call forwarding results.
+ *
+ * Stores what would otherwise be an array of {@link CallForwardInfo} as
+ * parallel int arrays plus one shared char buffer for the numbers, so a
+ * query across all reasons and service classes can be parsed, compared
+ * and re-parsed without building objects or Strings. Call {@link #clear}
+ * to reuse the storage for the next query.
+ *
+ * Entries are identified by their (reason, serviceClass) pair when
+ * diffing two sets.
+ *
+ * {@hide}
+ */
+public final class CallForwardInfoSet {
+
+    private static final int DEFAULT_CAPACITY = 8;
+    private static final int DEFAULT_NUMBER_LENGTH = 16;
+
+    /** Receives the differences found by {@link #diff}. */
+    public interface DiffListener {
+        /** Entry @param index of the new set has no match in the old one. */
+        void onAdded(int index);
+        /** Entry @param oldIndex of the old set has no match in the new one. */
+        void onRemoved(int oldIndex);
+        /** The matching entries differ in status, toa, number or time. */
+        void onChanged(int oldIndex, int index);
+    }
+
+    private int mSize;
+    private int[] mStatus;
+    private int[] mReason;
+    private int[] mServiceClass;
+    private int[] mToa;
+    private int[] mTimeSeconds;
+    private int[] mNumberStart;
+    private int[] mNumberLength; // -1 for a null number
+    private char[] mNumbers;
+    private int mNumbersUsed;
+    // Parse position shared by parseCcfcLine() and parseInt()
+    private final int[] mCursor = new int[1];
+
+    public CallForwardInfoSet() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public CallForwardInfoSet(int capacity) {
+        capacity = Math.max(1, capacity);
+        mStatus = new int[capacity];
+        mReason = new int[capacity];
+        mServiceClass = new int[capacity];
+        mToa = new int[capacity];
+        mTimeSeconds = new int[capacity];
+        mNumberStart = new int[capacity];
+        mNumberLength = new int[capacity];
+        mNumbers = new char[capacity * DEFAULT_NUMBER_LENGTH];
+    }
+
+    /** Empties the set, keeping its storage for reuse. */
+    public void clear() {
+        mSize = 0;
+        mNumbersUsed = 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int add(int status, int reason, int serviceClass, int toa, CharSequence number,
+            int timeSeconds) {
+        int i = beginEntry(status, reason, serviceClass, toa, timeSeconds);
+        if (number != null) {
+            int len = number.length();
+            ensureNumberCapacity(len);
+            for (int k = 0; k < len; k++) {
+                mNumbers[mNumbersUsed + k] = number.charAt(k);
+            }
+            endNumber(i, len);
+        }
+        return i;
+    }
+
+    public void addAll(CallForwardInfo[] infos) {
+        if (infos == null) {
+            return;
+        }
+        for (CallForwardInfo info : infos) {
+            add(info.status, info.reason, info.serviceClass, info.toa, info.number,
+                    info.timeSeconds);
+        }
+    }
+
+    /**
+     * Parses a TS 27.007 +CCFC query response for @param reason and appends
+     * one entry per line. Each line has the form
+     * {@code +CCFC: <status>,<class>[,<number>,<type>[,<subaddr>,<satype>[,<time>]]]},
+     * with the "+CCFC:" prefix optional and the number optionally quoted.
+     *
+     * @return the number of entries added
+     * @throws IllegalArgumentException if a line is malformed, in which case
+     *         no entries are added
+     */
+    public int parseCcfc(CharSequence text, int reason) {
+        int size = mSize;
+        int numbersUsed = mNumbersUsed;
+        int added = 0;
+        int pos = 0;
+        int end = text.length();
+        try {
+            while (pos < end) {
+                int lineEnd = pos;
+                while (lineEnd < end && text.charAt(lineEnd) != '\n'
+                        && text.charAt(lineEnd) != '\r') {
+                    lineEnd++;
+                }
+                if (parseCcfcLine(text, pos, lineEnd, reason)) {
+                    added++;
+                }
+                pos = lineEnd + 1;
+            }
+        } catch (IllegalArgumentException e) {
+            mSize = size;
+            mNumbersUsed = numbersUsed;
+            throw e;
+        }
+        return added;
+    }
+
+    public int getStatus(int i) {
+        checkIndex(i);
+        return mStatus[i];
+    }
+
+    public int getReason(int i) {
+        checkIndex(i);
+        return mReason[i];
+    }
+
+    public int getServiceClass(int i) {
+        checkIndex(i);
+        return mServiceClass[i];
+    }
+
+    public int getToa(int i) {
+        checkIndex(i);
+        return mToa[i];
+    }
+
+    public int getTimeSeconds(int i) {
+        checkIndex(i);
+        return mTimeSeconds[i];
+    }
+
+    /** Returns the number of entry @param i; allocates a String. */
+    public String getNumber(int i) {
+        checkIndex(i);
+        int len = mNumberLength[i];
+        return len < 0 ? null : new String(mNumbers, mNumberStart[i], len);
+    }
+
+    /** Appends the number of entry @param i to @param sb without allocating. */
+    public void appendNumber(int i, StringBuilder sb) {
+        checkIndex(i);
+        int len = mNumberLength[i];
+        if (len >= 0) {
+            sb.append(mNumbers, mNumberStart[i], len);
+        }
+    }
+
+    public boolean numberEquals(int i, CharSequence number) {
+        checkIndex(i);
+        int len = mNumberLength[i];
+        if (number == null || len < 0) {
+            return number == null && len < 0;
+        }
+        if (number.length() != len) {
+            return false;
+        }
+        int start = mNumberStart[i];
+        for (int k = 0; k < len; k++) {
+            if (mNumbers[start + k] != number.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the index of the entry for the given key, or -1. */
+    public int indexOf(int reason, int serviceClass) {
+        for (int i = 0; i < mSize; i++) {
+            if (mReason[i] == reason && mServiceClass[i] == serviceClass) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public CallForwardInfo toCallForwardInfo(int i) {
+        CallForwardInfo info = new CallForwardInfo();
+        info.status = getStatus(i);
+        info.reason = mReason[i];
+        info.serviceClass = mServiceClass[i];
+        info.toa = mToa[i];
+        info.number = getNumber(i);
+        info.timeSeconds = mTimeSeconds[i];
+        return info;
+    }
+
+    public CallForwardInfo[] toCallForwardInfos() {
+        CallForwardInfo[] infos = new CallForwardInfo[mSize];
+        for (int i = 0; i < mSize; i++) {
+            infos[i] = toCallForwardInfo(i);
+        }
+        return infos;
+    }
+
+    /**
+     * Reports how this set differs from @param old, matching entries by
+     * reason and service class.
+     *
+     * @return true if any difference was found
+     */
+    public boolean diff(CallForwardInfoSet old, DiffListener listener) {
+        boolean changed = false;
+        for (int i = 0; i < mSize; i++) {
+            int j = old.indexOf(mReason[i], mServiceClass[i]);
+            if (j < 0) {
+                changed = true;
+                listener.onAdded(i);
+            } else if (!sameValues(old, j, i)) {
+                changed = true;
+                listener.onChanged(j, i);
+            }
+        }
+        for (int j = 0; j < old.mSize; j++) {
+            if (indexOf(old.mReason[j], old.mServiceClass[j]) < 0) {
+                changed = true;
+                listener.onRemoved(j);
+            }
+        }
+        return changed;
+    }
+
+    /** Two sets are equal if they hold the same entries in the same order. */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CallForwardInfoSet)) {
+            return false;
+        }
+        CallForwardInfoSet other = (CallForwardInfoSet) o;
+        if (other.mSize != mSize) {
+            return false;
+        }
+        for (int i = 0; i < mSize; i++) {
+            if (other.mReason[i] != mReason[i] || other.mServiceClass[i] != mServiceClass[i]
+                    || !sameValues(other, i, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = mSize;
+        for (int i = 0; i < mSize; i++) {
+            h = 31 * h + mStatus[i];
+            h = 31 * h + mReason[i];
+            h = 31 * h + mServiceClass[i];
+            h = 31 * h + mToa[i];
+            h = 31 * h + mTimeSeconds[i];
+            int len = mNumberLength[i];
+            for (int k = 0; k < len; k++) {
+                h = 31 * h + mNumbers[mNumberStart[i] + k];
+            }
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[CallForwardInfoSet: size=").append(mSize);
+        for (int i = 0; i < mSize; i++) {
+            sb.append(", ").append(toCallForwardInfo(i));
+        }
+        return sb.append(']').toString();
+    }
+
+    private boolean sameValues(CallForwardInfoSet other, int otherIndex, int i) {
+        if (other.mStatus[otherIndex] != mStatus[i] || other.mToa[otherIndex] != mToa[i]
+                || other.mTimeSeconds[otherIndex] != mTimeSeconds[i]) {
+            return false;
+        }
+        int len = mNumberLength[i];
+        if (other.mNumberLength[otherIndex] != len) {
+            return false;
+        }
+        for (int k = 0; k < len; k++) {
+            if (other.mNumbers[other.mNumberStart[otherIndex] + k]
+                    != mNumbers[mNumberStart[i] + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean parseCcfcLine(CharSequence text, int start, int end, int reason) {
+        int pos = skipSpaces(text, start, end);
+        if (pos == end) {
+            return false;
+        }
+        if (regionMatches(text, pos, end, "+CCFC:")) {
+            pos = skipSpaces(text, pos + 6, end);
+        }
+
+        int[] cursor = mCursor;
+        cursor[0] = pos;
+        int status = parseInt(text, cursor, end, 0, true);
+        int serviceClass = parseInt(text, cursor, end, 0, true);
+        int i = beginEntry(status, reason, serviceClass, 0, 0);
+
+        pos = skipSpaces(text, cursor[0], end);
+        if (pos < end) {
+            boolean quoted = text.charAt(pos) == '"';
+            if (quoted) {
+                pos++;
+            }
+            int numEnd = pos;
+            while (numEnd < end && text.charAt(numEnd) != (quoted ? '"' : ',')) {
+                numEnd++;
+            }
+            int len = numEnd - pos;
+            // An empty unquoted field means no number, as in CallForwardInfo
+            if (len > 0 || quoted) {
+                ensureNumberCapacity(len);
+                for (int k = 0; k < len; k++) {
+                    mNumbers[mNumbersUsed + k] = text.charAt(pos + k);
+                }
+                endNumber(i, len);
+            }
+            pos = quoted ? numEnd + 1 : numEnd;
+            if (pos < end && text.charAt(pos) == ',') {
+                pos++;
+            }
+            cursor[0] = pos;
+            mToa[i] = parseInt(text, cursor, end, 0, false);
+            // Skip subaddress and its type
+            parseInt(text, cursor, end, 0, false);
+            parseInt(text, cursor, end, 0, false);
+            mTimeSeconds[i] = parseInt(text, cursor, end, 0, false);
+        }
+        return true;
+    }
+
+    /**
+     * Parses the comma-terminated decimal field at cursor[0], advancing past
+     * the comma. Empty or non-numeric fields give @param dflt unless
+     * @param required, in which case they are rejected.
+     */
+    private static int parseInt(CharSequence text, int[] cursor, int end, int dflt,
+            boolean required) {
+        int pos = skipSpaces(text, cursor[0], end);
+        boolean negative = pos < end && text.charAt(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        int value = 0;
+        int digits = 0;
+        while (pos < end && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+            value = value * 10 + (text.charAt(pos) - '0');
+            pos++;
+            digits++;
+        }
+        boolean valid = digits > 0;
+        // Skip to the end of the field
+        while (pos < end && text.charAt(pos) != ',') {
+            if (text.charAt(pos) != ' ') {
+                valid = false;
+            }
+            pos++;
+        }
+        cursor[0] = pos < end ? pos + 1 : end;
+        if (!valid) {
+            if (required) {
+                throw new IllegalArgumentException("Malformed +CCFC field at " + cursor[0]);
+            }
+            return dflt;
+        }
+        return negative ? -value : value;
+    }
+
+    private static int skipSpaces(CharSequence text, int pos, int end) {
+        while (pos < end && text.charAt(pos) == ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean regionMatches(CharSequence text, int pos, int end, String s) {
+        if (end - pos < s.length()) {
+            return false;
+        }
+        for (int k = 0; k < s.length(); k++) {
+            if (text.charAt(pos + k) != s.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int beginEntry(int status, int reason, int serviceClass, int toa,
+            int timeSeconds) {
+        if (mSize == mStatus.length) {
+            int capacity = mSize * 2;
+            mStatus = Arrays.copyOf(mStatus, capacity);
+            mReason = Arrays.copyOf(mReason, capacity);
+            mServiceClass = Arrays.copyOf(mServiceClass, capacity);
+            mToa = Arrays.copyOf(mToa, capacity);
+            mTimeSeconds = Arrays.copyOf(mTimeSeconds, capacity);
+            mNumberStart = Arrays.copyOf(mNumberStart, capacity);
+            mNumberLength = Arrays.copyOf(mNumberLength, capacity);
+        }
+        int i = mSize++;
+        mStatus[i] = status;
+        mReason[i] = reason;
+        mServiceClass[i] = serviceClass;
+        mToa[i] = toa;
+        mTimeSeconds[i] = timeSeconds;
+        mNumberStart[i] = mNumbersUsed;
+        mNumberLength[i] = -1;
+        return i;
+    }
+
+    private void ensureNumberCapacity(int len) {
+        if (mNumbersUsed + len > mNumbers.length) {
+            mNumbers = Arrays.copyOf(mNumbers, Math.max(mNumbers.length * 2, mNumbersUsed + len));
+        }
+    }
+
+    private void endNumber(int i, int len) {
+        mNumberStart[i] = mNumbersUsed;
+        mNumberLength[i] = len;
+        mNumbersUsed += len;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= mSize) {
+            throw new IndexOutOfBoundsException("index " + i + ", size " + mSize);
+        }
+    }
+}
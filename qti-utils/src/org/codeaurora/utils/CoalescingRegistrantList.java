@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import android.os.Handler;
+import android.os.Message;
+
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RegistrantList variant for state-style indications where only the
+ * newest value matters.
+ *
+ * Each Handler registered through this list has at most one delivery
+ * queued at a time. Notifying again before that delivery runs removes
+ * the queued Message and sends one with the new payload, so the Handler
+ * sees the latest result and its queue stays bounded during indication
+ * storms. Deliveries are ordinary Messages, so hasMessages(what) and
+ * removeMessages(what) keep working for the registered Handlers.
+ *
+ * Only registrants created by this list coalesce; a Registrant passed to
+ * {@link #add(Registrant)} is delivered as-is. So are registrants added
+ * with addPooled(): a recycled AsyncResult can be handed to another
+ * registrant of the same Handler, so it cannot identify the queued
+ * Message.
+ *
+ * @hide
+ */
+public class CoalescingRegistrantList extends RegistrantList
+{
+    private final AtomicLong mPostedCount = new AtomicLong();
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+
+    @Override
+    /*package*/ Registrant
+    newRegistrant(Handler h, int what, Object obj, boolean pooledResult)
+    {
+        return new CoalescingRegistrant(this, h, what, obj, pooledResult);
+    }
+
+    /**
+     * Returns how many deliveries were sent to registrant Handlers.
+     */
+    public long
+    getPostedCount()
+    {
+        return mPostedCount.get();
+    }
+
+    /**
+     * Returns how many notifications replaced a delivery that was still
+     * queued.
+     */
+    public long
+    getCoalescedCount()
+    {
+        return mCoalescedCount.get();
+    }
+
+    @Override
+    public void
+    dump(PrintWriter pw)
+    {
+        super.dump(pw);
+        pw.println("  posted=" + getPostedCount()
+                + " coalesced=" + getCoalescedCount());
+    }
+
+    private static final class CoalescingRegistrant extends Registrant
+    {
+        private final CoalescingRegistrantList mList;
+        // Payload of the last Message sent, guarded by this. Held weakly so
+        // a delivered payload is not kept alive until the next notification
+        private WeakReference<AsyncResult> mLastSent;
+
+        CoalescingRegistrant(CoalescingRegistrantList list, Handler h,
+                int what, Object obj, boolean pooledResult)
+        {
+            super(h, what, obj, pooledResult);
+            mList = list;
+        }
+
+        @Override
+        /*package*/ synchronized void
+        internalNotifyRegistrant (Object result, Throwable exception)
+        {
+            Handler h = getHandler();
+
+            if (h == null) {
+                clear();
+                return;
+            }
+
+            if (mPooledResult) {
+                mList.mPostedCount.incrementAndGet();
+                super.internalNotifyRegistrant(result, exception);
+                return;
+            }
+
+            AsyncResult prev = mLastSent != null ? mLastSent.get() : null;
+
+            if (prev != null && h.hasMessages(what, prev)) {
+                h.removeMessages(what, prev);
+                mList.mCoalescedCount.incrementAndGet();
+            }
+
+            Message msg = Message.obtain();
+            AsyncResult ar = new AsyncResult(userObj, result, exception);
+
+            msg.what = what;
+            msg.obj = ar;
+
+            mLastSent = new WeakReference<>(ar);
+            mList.mPostedCount.incrementAndGet();
+            h.sendMessage(msg);
+        }
+    }
+}
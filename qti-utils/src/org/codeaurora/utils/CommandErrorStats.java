@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide counters of {@link CommandException.Error} occurrences.
+ *
+ * Keeps a lifetime total per Error plus one-second buckets covering the
+ * last {@link #WINDOW_SECONDS} seconds, so surges such as SMS_FAIL_RETRY
+ * or GENERIC_FAILURE can be spotted from a dump. Recording is lock-free;
+ * windowed counts are approximate when a bucket rolls over while another
+ * thread is recording into it.
+ *
+ * @hide
+ */
+public final class CommandErrorStats {
+
+    public static final int WINDOW_SECONDS = 60;
+
+    private static final CommandException.Error[] ERRORS = CommandException.Error.values();
+
+    private static final AtomicLongArray sTotals = new AtomicLongArray(ERRORS.length);
+    // sBuckets[slot * ERRORS.length + ordinal], slot = second % WINDOW_SECONDS
+    private static final AtomicLongArray sBuckets =
+            new AtomicLongArray(WINDOW_SECONDS * ERRORS.length);
+    // The second each slot currently holds
+    private static final AtomicLongArray sSlotSecond = new AtomicLongArray(WINDOW_SECONDS);
+
+    private CommandErrorStats() {
+        /* static utility */
+    }
+
+    /*package*/ static void record(CommandException.Error e) {
+        int ordinal = e.ordinal();
+        sTotals.incrementAndGet(ordinal);
+
+        long second = now();
+        int slot = (int) (second % WINDOW_SECONDS);
+        long held = sSlotSecond.get(slot);
+        if (held != second && sSlotSecond.compareAndSet(slot, held, second)) {
+            int base = slot * ERRORS.length;
+            for (int i = 0; i < ERRORS.length; i++) {
+                sBuckets.set(base + i, 0);
+            }
+        }
+        sBuckets.incrementAndGet(slot * ERRORS.length + ordinal);
+    }
+
+    /** Returns how often @param e has occurred since boot. */
+    public static long getCount(CommandException.Error e) {
+        return sTotals.get(e.ordinal());
+    }
+
+    /**
+     * Returns how often @param e occurred in the last @param seconds,
+     * capped at {@link #WINDOW_SECONDS}.
+     */
+    public static long getRecentCount(CommandException.Error e, int seconds) {
+        seconds = Math.min(Math.max(seconds, 1), WINDOW_SECONDS);
+        long now = now();
+        long count = 0;
+        for (int s = 0; s < seconds; s++) {
+            long second = now - s;
+            if (second < 0) {
+                break;
+            }
+            int slot = (int) (second % WINDOW_SECONDS);
+            if (sSlotSecond.get(slot) == second) {
+                count += sBuckets.get(slot * ERRORS.length + e.ordinal());
+            }
+        }
+        return count;
+    }
+
+    public static void dump(PrintWriter pw) {
+        pw.println("CommandErrorStats: (total / last 10s / last " + WINDOW_SECONDS + "s)");
+        for (CommandException.Error e : ERRORS) {
+            long total = getCount(e);
+            if (total == 0) {
+                continue;
+            }
+            pw.println("  " + e + ": " + total + " / " + getRecentCount(e, 10) + " / "
+                    + getRecentCount(e, WINDOW_SECONDS));
+        }
+    }
+
+    private static long now() {
+        return SystemClock.elapsedRealtime() / 1000;
+    }
+}
@@ -23,7 +23,7 @@ package org.codeaurora.telephony.utils;
  * {@hide}
  */
 public class CommandException extends RuntimeException {
-    private Error mError;
+    private final Error mError;
 
     public enum Error {
         INVALID_RESPONSE,
@@ -118,204 +118,277 @@ public class CommandException extends RuntimeException {
         OEM_ERROR_25,
     }
 
+    // ERRNO_TABLE[i] is the Error for RIL errno i + ERRNO_TABLE_BASE
+    private static final int ERRNO_TABLE_BASE = RILConstants.RIL_ERRNO_INVALID_RESPONSE;
+    private static final Error[] ERRNO_TABLE =
+            new Error[RILConstants.OEM_ERROR_25 - ERRNO_TABLE_BASE + 1];
+    private static final CommandException[] SHARED =
+            new CommandException[Error.values().length];
+
+    static {
+        for (int i = 0; i < ERRNO_TABLE.length; i++) {
+            ERRNO_TABLE[i] = errorForErrno(i + ERRNO_TABLE_BASE);
+        }
+        for (Error e : Error.values()) {
+            SHARED[e.ordinal()] = new CommandException(e, false);
+        }
+    }
+
     public CommandException(Error e) {
         super(e.toString());
         mError = e;
+        CommandErrorStats.record(e);
     }
 
     public CommandException(Error e, String errString) {
         super(errString);
         mError = e;
+        CommandErrorStats.record(e);
+    }
+
+    /**
+     * Builds a shared instance without a stack trace or suppression. Not
+     * counted in CommandErrorStats; uses of it are counted instead.
+     */
+    private CommandException(Error e, boolean unused) {
+        super(e.toString(), null, false, false);
+        mError = e;
     }
 
     public static CommandException
     fromRilErrno(int ril_errno) {
+        if (ril_errno == RILConstants.SUCCESS) {
+            return null;
+        }
+        return new CommandException(errorFromRilErrno(ril_errno));
+    }
+
+    /**
+     * Like {@link #fromRilErrno}, but returns the shared instance for the
+     * Error instead of allocating one. Shared instances carry no stack
+     * trace and cannot be modified, so they suit callers that only read
+     * {@link #getCommandError}.
+     */
+    public static CommandException
+    fromRilErrnoShared(int ril_errno) {
+        if (ril_errno == RILConstants.SUCCESS) {
+            return null;
+        }
+        Error e = errorFromRilErrno(ril_errno);
+        CommandErrorStats.record(e);
+        return getSharedInstance(e);
+    }
+
+    /**
+     * Returns the shared, stackless and immutable instance for @param e.
+     */
+    public static CommandException
+    getSharedInstance(Error e) {
+        return SHARED[e.ordinal()];
+    }
+
+    private static Error
+    errorFromRilErrno(int ril_errno) {
+        int index = ril_errno - ERRNO_TABLE_BASE;
+        Error e = index >= 0 && index < ERRNO_TABLE.length ? ERRNO_TABLE[index] : null;
+        if (e == null) {
+            Log.e("CommandException", "Unrecognized RIL errno " + ril_errno);
+            return Error.INVALID_RESPONSE;
+        }
+        return e;
+    }
+
+    /**
+     * Maps a RIL errno to its Error using the switch below. Only used to
+     * build {@link #ERRNO_TABLE}; returns null for SUCCESS and unknown values.
+     */
+    private static Error
+    errorForErrno(int ril_errno) {
         switch(ril_errno) {
             case RILConstants.SUCCESS:                       return null;
             case RILConstants.RIL_ERRNO_INVALID_RESPONSE:
-                return new CommandException(Error.INVALID_RESPONSE);
+                return Error.INVALID_RESPONSE;
             case RILConstants.RADIO_NOT_AVAILABLE:
-                return new CommandException(Error.RADIO_NOT_AVAILABLE);
+                return Error.RADIO_NOT_AVAILABLE;
             case RILConstants.GENERIC_FAILURE:
-                return new CommandException(Error.GENERIC_FAILURE);
+                return Error.GENERIC_FAILURE;
             case RILConstants.PASSWORD_INCORRECT:
-                return new CommandException(Error.PASSWORD_INCORRECT);
+                return Error.PASSWORD_INCORRECT;
             case RILConstants.SIM_PIN2:
-                return new CommandException(Error.SIM_PIN2);
+                return Error.SIM_PIN2;
             case RILConstants.SIM_PUK2:
-                return new CommandException(Error.SIM_PUK2);
+                return Error.SIM_PUK2;
             case RILConstants.REQUEST_NOT_SUPPORTED:
-                return new CommandException(Error.REQUEST_NOT_SUPPORTED);
+                return Error.REQUEST_NOT_SUPPORTED;
             case RILConstants.OP_NOT_ALLOWED_DURING_VOICE_CALL:
-                return new CommandException(Error.OP_NOT_ALLOWED_DURING_VOICE_CALL);
+                return Error.OP_NOT_ALLOWED_DURING_VOICE_CALL;
             case RILConstants.OP_NOT_ALLOWED_BEFORE_REG_NW:
-                return new CommandException(Error.OP_NOT_ALLOWED_BEFORE_REG_NW);
+                return Error.OP_NOT_ALLOWED_BEFORE_REG_NW;
             case RILConstants.SMS_SEND_FAIL_RETRY:
-                return new CommandException(Error.SMS_FAIL_RETRY);
+                return Error.SMS_FAIL_RETRY;
             case RILConstants.SIM_ABSENT:
-                return new CommandException(Error.SIM_ABSENT);
+                return Error.SIM_ABSENT;
             case RILConstants.SUBSCRIPTION_NOT_AVAILABLE:
-                return new CommandException(Error.SUBSCRIPTION_NOT_AVAILABLE);
+                return Error.SUBSCRIPTION_NOT_AVAILABLE;
             case RILConstants.MODE_NOT_SUPPORTED:
-                return new CommandException(Error.MODE_NOT_SUPPORTED);
+                return Error.MODE_NOT_SUPPORTED;
             case RILConstants.FDN_CHECK_FAILURE:
-                return new CommandException(Error.FDN_CHECK_FAILURE);
+                return Error.FDN_CHECK_FAILURE;
             case RILConstants.ILLEGAL_SIM_OR_ME:
-                return new CommandException(Error.ILLEGAL_SIM_OR_ME);
+                return Error.ILLEGAL_SIM_OR_ME;
             case RILConstants.MISSING_RESOURCE:
-                return new CommandException(Error.MISSING_RESOURCE);
+                return Error.MISSING_RESOURCE;
             case RILConstants.NO_SUCH_ELEMENT:
-                return new CommandException(Error.NO_SUCH_ELEMENT);
+                return Error.NO_SUCH_ELEMENT;
             case RILConstants.SUBSCRIPTION_NOT_SUPPORTED:
-                return new CommandException(Error.SUBSCRIPTION_NOT_SUPPORTED);
+                return Error.SUBSCRIPTION_NOT_SUPPORTED;
             case RILConstants.DIAL_MODIFIED_TO_USSD:
-                return new CommandException(Error.DIAL_MODIFIED_TO_USSD);
+                return Error.DIAL_MODIFIED_TO_USSD;
             case RILConstants.DIAL_MODIFIED_TO_SS:
-                return new CommandException(Error.DIAL_MODIFIED_TO_SS);
+                return Error.DIAL_MODIFIED_TO_SS;
             case RILConstants.DIAL_MODIFIED_TO_DIAL:
-                return new CommandException(Error.DIAL_MODIFIED_TO_DIAL);
+                return Error.DIAL_MODIFIED_TO_DIAL;
             case RILConstants.USSD_MODIFIED_TO_DIAL:
-                return new CommandException(Error.USSD_MODIFIED_TO_DIAL);
+                return Error.USSD_MODIFIED_TO_DIAL;
             case RILConstants.USSD_MODIFIED_TO_SS:
-                return new CommandException(Error.USSD_MODIFIED_TO_SS);
+                return Error.USSD_MODIFIED_TO_SS;
             case RILConstants.USSD_MODIFIED_TO_USSD:
-                return new CommandException(Error.USSD_MODIFIED_TO_USSD);
+                return Error.USSD_MODIFIED_TO_USSD;
             case RILConstants.SS_MODIFIED_TO_DIAL:
-                return new CommandException(Error.SS_MODIFIED_TO_DIAL);
+                return Error.SS_MODIFIED_TO_DIAL;
             case RILConstants.SS_MODIFIED_TO_USSD:
-                return new CommandException(Error.SS_MODIFIED_TO_USSD);
+                return Error.SS_MODIFIED_TO_USSD;
             case RILConstants.SS_MODIFIED_TO_SS:
-                return new CommandException(Error.SS_MODIFIED_TO_SS);
+                return Error.SS_MODIFIED_TO_SS;
             case RILConstants.SIM_ALREADY_POWERED_OFF:
-                return new CommandException(Error.SIM_ALREADY_POWERED_OFF);
+                return Error.SIM_ALREADY_POWERED_OFF;
             case RILConstants.SIM_ALREADY_POWERED_ON:
-                return new CommandException(Error.SIM_ALREADY_POWERED_ON);
+                return Error.SIM_ALREADY_POWERED_ON;
             case RILConstants.SIM_DATA_NOT_AVAILABLE:
-                return new CommandException(Error.SIM_DATA_NOT_AVAILABLE);
+                return Error.SIM_DATA_NOT_AVAILABLE;
             case RILConstants.SIM_SAP_CONNECT_FAILURE:
-                return new CommandException(Error.SIM_SAP_CONNECT_FAILURE);
+                return Error.SIM_SAP_CONNECT_FAILURE;
             case RILConstants.SIM_SAP_MSG_SIZE_TOO_LARGE:
-                return new CommandException(Error.SIM_SAP_MSG_SIZE_TOO_LARGE);
+                return Error.SIM_SAP_MSG_SIZE_TOO_LARGE;
             case RILConstants.SIM_SAP_MSG_SIZE_TOO_SMALL:
-                return new CommandException(Error.SIM_SAP_MSG_SIZE_TOO_SMALL);
+                return Error.SIM_SAP_MSG_SIZE_TOO_SMALL;
             case RILConstants.SIM_SAP_CONNECT_OK_CALL_ONGOING:
-                return new CommandException(Error.SIM_SAP_CONNECT_OK_CALL_ONGOING);
+                return Error.SIM_SAP_CONNECT_OK_CALL_ONGOING;
             case RILConstants.LCE_NOT_SUPPORTED:
-                return new CommandException(Error.LCE_NOT_SUPPORTED);
+                return Error.LCE_NOT_SUPPORTED;
             case RILConstants.NO_MEMORY:
-                return new CommandException(Error.NO_MEMORY);
+                return Error.NO_MEMORY;
             case RILConstants.INTERNAL_ERR:
-                return new CommandException(Error.INTERNAL_ERR);
+                return Error.INTERNAL_ERR;
             case RILConstants.SYSTEM_ERR:
-                return new CommandException(Error.SYSTEM_ERR);
+                return Error.SYSTEM_ERR;
             case RILConstants.MODEM_ERR:
-                return new CommandException(Error.MODEM_ERR);
+                return Error.MODEM_ERR;
             case RILConstants.INVALID_STATE:
-                return new CommandException(Error.INVALID_STATE);
+                return Error.INVALID_STATE;
             case RILConstants.NO_RESOURCES:
-                return new CommandException(Error.NO_RESOURCES);
+                return Error.NO_RESOURCES;
             case RILConstants.SIM_ERR:
-                return new CommandException(Error.SIM_ERR);
+                return Error.SIM_ERR;
             case RILConstants.INVALID_ARGUMENTS:
-                return new CommandException(Error.INVALID_ARGUMENTS);
+                return Error.INVALID_ARGUMENTS;
             case RILConstants.INVALID_SIM_STATE:
-                return new CommandException(Error.INVALID_SIM_STATE);
+                return Error.INVALID_SIM_STATE;
             case RILConstants.INVALID_MODEM_STATE:
-                return new CommandException(Error.INVALID_MODEM_STATE);
+                return Error.INVALID_MODEM_STATE;
             case RILConstants.INVALID_CALL_ID:
-                return new CommandException(Error.INVALID_CALL_ID);
+                return Error.INVALID_CALL_ID;
             case RILConstants.NO_SMS_TO_ACK:
-                return new CommandException(Error.NO_SMS_TO_ACK);
+                return Error.NO_SMS_TO_ACK;
             case RILConstants.NETWORK_ERR:
-                return new CommandException(Error.NETWORK_ERR);
+                return Error.NETWORK_ERR;
             case RILConstants.REQUEST_RATE_LIMITED:
-                return new CommandException(Error.REQUEST_RATE_LIMITED);
+                return Error.REQUEST_RATE_LIMITED;
             case RILConstants.SIM_BUSY:
-                return new CommandException(Error.SIM_BUSY);
+                return Error.SIM_BUSY;
             case RILConstants.SIM_FULL:
-                return new CommandException(Error.SIM_FULL);
+                return Error.SIM_FULL;
             case RILConstants.NETWORK_REJECT:
-                return new CommandException(Error.NETWORK_REJECT);
+                return Error.NETWORK_REJECT;
             case RILConstants.OPERATION_NOT_ALLOWED:
-                return new CommandException(Error.OPERATION_NOT_ALLOWED);
+                return Error.OPERATION_NOT_ALLOWED;
             case RILConstants.EMPTY_RECORD:
-                return new CommandException(Error.EMPTY_RECORD);
+                return Error.EMPTY_RECORD;
             case RILConstants.INVALID_SMS_FORMAT:
-                return new CommandException(Error.INVALID_SMS_FORMAT);
+                return Error.INVALID_SMS_FORMAT;
             case RILConstants.ENCODING_ERR:
-                return new CommandException(Error.ENCODING_ERR);
+                return Error.ENCODING_ERR;
             case RILConstants.INVALID_SMSC_ADDRESS:
-                return new CommandException(Error.INVALID_SMSC_ADDRESS);
+                return Error.INVALID_SMSC_ADDRESS;
             case RILConstants.NO_SUCH_ENTRY:
-                return new CommandException(Error.NO_SUCH_ENTRY);
+                return Error.NO_SUCH_ENTRY;
             case RILConstants.NETWORK_NOT_READY:
-                return new CommandException(Error.NETWORK_NOT_READY);
+                return Error.NETWORK_NOT_READY;
             case RILConstants.NOT_PROVISIONED:
-                return new CommandException(Error.NOT_PROVISIONED);
+                return Error.NOT_PROVISIONED;
             case RILConstants.NO_SUBSCRIPTION:
-                return new CommandException(Error.NO_SUBSCRIPTION);
+                return Error.NO_SUBSCRIPTION;
             case RILConstants.NO_NETWORK_FOUND:
-                return new CommandException(Error.NO_NETWORK_FOUND);
+                return Error.NO_NETWORK_FOUND;
             case RILConstants.DEVICE_IN_USE:
-                return new CommandException(Error.DEVICE_IN_USE);
+                return Error.DEVICE_IN_USE;
             case RILConstants.ABORTED:
-                return new CommandException(Error.ABORTED);
+                return Error.ABORTED;
             case RILConstants.INVALID_RESPONSE:
-                return new CommandException(Error.INVALID_RESPONSE);
+                return Error.INVALID_RESPONSE;
             case RILConstants.OEM_ERROR_1:
-                return new CommandException(Error.OEM_ERROR_1);
+                return Error.OEM_ERROR_1;
             case RILConstants.OEM_ERROR_2:
-                return new CommandException(Error.OEM_ERROR_2);
+                return Error.OEM_ERROR_2;
             case RILConstants.OEM_ERROR_3:
-                return new CommandException(Error.OEM_ERROR_3);
+                return Error.OEM_ERROR_3;
             case RILConstants.OEM_ERROR_4:
-                return new CommandException(Error.OEM_ERROR_4);
+                return Error.OEM_ERROR_4;
             case RILConstants.OEM_ERROR_5:
-                return new CommandException(Error.OEM_ERROR_5);
+                return Error.OEM_ERROR_5;
             case RILConstants.OEM_ERROR_6:
-                return new CommandException(Error.OEM_ERROR_6);
+                return Error.OEM_ERROR_6;
             case RILConstants.OEM_ERROR_7:
-                return new CommandException(Error.OEM_ERROR_7);
+                return Error.OEM_ERROR_7;
             case RILConstants.OEM_ERROR_8:
-                return new CommandException(Error.OEM_ERROR_8);
+                return Error.OEM_ERROR_8;
             case RILConstants.OEM_ERROR_9:
-                return new CommandException(Error.OEM_ERROR_9);
+                return Error.OEM_ERROR_9;
             case RILConstants.OEM_ERROR_10:
-                return new CommandException(Error.OEM_ERROR_10);
+                return Error.OEM_ERROR_10;
             case RILConstants.OEM_ERROR_11:
-                return new CommandException(Error.OEM_ERROR_11);
+                return Error.OEM_ERROR_11;
             case RILConstants.OEM_ERROR_12:
-                return new CommandException(Error.OEM_ERROR_12);
+                return Error.OEM_ERROR_12;
             case RILConstants.OEM_ERROR_13:
-                return new CommandException(Error.OEM_ERROR_13);
+                return Error.OEM_ERROR_13;
             case RILConstants.OEM_ERROR_14:
-                return new CommandException(Error.OEM_ERROR_14);
+                return Error.OEM_ERROR_14;
             case RILConstants.OEM_ERROR_15:
-                return new CommandException(Error.OEM_ERROR_15);
+                return Error.OEM_ERROR_15;
             case RILConstants.OEM_ERROR_16:
-                return new CommandException(Error.OEM_ERROR_16);
+                return Error.OEM_ERROR_16;
             case RILConstants.OEM_ERROR_17:
-                return new CommandException(Error.OEM_ERROR_17);
+                return Error.OEM_ERROR_17;
             case RILConstants.OEM_ERROR_18:
-                return new CommandException(Error.OEM_ERROR_18);
+                return Error.OEM_ERROR_18;
             case RILConstants.OEM_ERROR_19:
-                return new CommandException(Error.OEM_ERROR_19);
+                return Error.OEM_ERROR_19;
             case RILConstants.OEM_ERROR_20:
-                return new CommandException(Error.OEM_ERROR_20);
+                return Error.OEM_ERROR_20;
             case RILConstants.OEM_ERROR_21:
-                return new CommandException(Error.OEM_ERROR_21);
+                return Error.OEM_ERROR_21;
             case RILConstants.OEM_ERROR_22:
-                return new CommandException(Error.OEM_ERROR_22);
+                return Error.OEM_ERROR_22;
             case RILConstants.OEM_ERROR_23:
-                return new CommandException(Error.OEM_ERROR_23);
+                return Error.OEM_ERROR_23;
             case RILConstants.OEM_ERROR_24:
-                return new CommandException(Error.OEM_ERROR_24);
+                return Error.OEM_ERROR_24;
             case RILConstants.OEM_ERROR_25:
-                return new CommandException(Error.OEM_ERROR_25);
+                return Error.OEM_ERROR_25;
 
             default:
-                Log.e("CommandException", "Unrecognized RIL errno " + ril_errno);
-                return new CommandException(Error.INVALID_RESPONSE);
+                return null;
         }
     }
 
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import java.util.Arrays;
+
+/**
+ * RegistrantList variant whose notify path takes no lock.
+ *
+ * Every mutation publishes a new immutable array of registrants and
+ * notification iterates whichever array was current when it started, so
+ * a fan-out never blocks add/remove and vice versa. A registrant removed
+ * while a notification is in flight may still receive that notification.
+ *
+ * @hide
+ */
+public class CopyOnWriteRegistrantList extends RegistrantList
+{
+    private static final Registrant[] EMPTY = new Registrant[0];
+
+    private volatile Registrant[] mSnapshot = EMPTY;
+
+    public
+    CopyOnWriteRegistrantList()
+    {
+        // Registrants live in mSnapshot; the base list is never used
+        super(null);
+    }
+
+    @Override
+    public synchronized void
+    add(Registrant r)
+    {
+        Registrant.drainCollected();
+        r.mOwner = this;
+        if (mPendingCleared.get() > 0) {
+            mPendingCleared.set(0);
+            mSnapshot = compact(mSnapshot, r);
+        } else {
+            Registrant[] cur = mSnapshot;
+            Registrant[] next = Arrays.copyOf(cur, cur.length + 1);
+            next[cur.length] = r;
+            mSnapshot = next;
+        }
+    }
+
+    @Override
+    public synchronized void
+    removeCleared()
+    {
+        mPendingCleared.set(0);
+        mSnapshot = compact(mSnapshot, null);
+    }
+
+    @Override
+    public int
+    size()
+    {
+        return mSnapshot.length;
+    }
+
+    @Override
+    public Object
+    get(int index)
+    {
+        return mSnapshot[index];
+    }
+
+    @Override
+    /*package*/ void
+    internalNotifyRegistrants (Object result, Throwable exception)
+    {
+        Registrant[] snapshot = mSnapshot;
+
+        for (int i = 0, s = snapshot.length; i < s ; i++) {
+            snapshot[i].internalNotifyRegistrant(result, exception);
+        }
+    }
+
+    @Override
+    /*package*/ synchronized void
+    removeTarget(Object target)
+    {
+        Registrant.drainCollected();
+        mPendingCleared.set(0);
+
+        Registrant[] cur = mSnapshot;
+        Registrant[] next = new Registrant[cur.length];
+        int n = 0;
+
+        for (int i = 0, s = cur.length ; i < s ; i++) {
+            Registrant  r = cur[i];
+            Object      rt;
+
+            rt = r.getTarget();
+
+            /* Clean up both the requested registrant and
+             * any now-collected registrants
+             */
+            if (rt == null) {
+                mReclaimedCount++;
+            } else if (rt == target) {
+                r.mOwner = null;
+                r.clear();
+            } else {
+                next[n++] = r;
+            }
+        }
+
+        if (n != cur.length) {
+            mSnapshot = n == 0 ? EMPTY : Arrays.copyOf(next, n);
+        }
+    }
+
+    /**
+     * Returns the live registrants of @param cur, followed by @param extra
+     * if it is non-null. Returns @param cur itself when nothing changed.
+     * Must be called with the list lock held.
+     */
+    private Registrant[]
+    compact(Registrant[] cur, Registrant extra)
+    {
+        // Registrants may be cleared concurrently by the notify path, so
+        // size the copy for the worst case and trim afterwards.
+        Registrant[] next = new Registrant[cur.length + 1];
+        int n = 0;
+
+        for (int i = 0; i < cur.length; i++) {
+            if (cur[i].refH != null) {
+                next[n++] = cur[i];
+            }
+        }
+
+        mReclaimedCount += cur.length - n;
+
+        if (extra != null) {
+            next[n++] = extra;
+        } else if (n == cur.length) {
+            return cur;
+        }
+
+        if (n == 0) {
+            return EMPTY;
+        }
+
+        return n == next.length ? next : Arrays.copyOf(next, n);
+    }
+}
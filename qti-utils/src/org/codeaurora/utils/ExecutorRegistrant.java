@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import android.os.Message;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registrant that hands results to a thread-safe {@link Callback} on an
+ * {@link Executor} instead of posting a Message to a Handler.
+ *
+ * As with Handler registrants only a weak reference to the callback is
+ * kept; once it is collected the registrant is cleared and dropped from
+ * its list. Also as with a Handler, each registrant's callbacks run one
+ * at a time and in notification order, even on a multi-threaded
+ * executor such as {@link #pooledExecutor}.
+ *
+ * @hide
+ */
+public class ExecutorRegistrant extends Registrant
+{
+    public interface Callback {
+        /**
+         * Called on the registrant's executor. If the registrant uses pooled
+         * results @param ar is recycled when this returns.
+         */
+        void onResult(int what, AsyncResult ar);
+    }
+
+    private static final int POOL_THREADS = 2;
+    private static final long POOL_KEEP_ALIVE_SECONDS = 30;
+
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+    private static volatile Executor sPooledExecutor;
+
+    private final Executor mExecutor;
+
+    public
+    ExecutorRegistrant(Executor executor, Callback callback, int what,
+            Object obj, boolean pooledResult)
+    {
+        super((Object) callback, what, obj, pooledResult);
+        // Inline delivery is already ordered by the notifying thread
+        mExecutor = executor == DIRECT_EXECUTOR ? executor : new SerialExecutor(executor);
+    }
+
+    /**
+     * Returns an executor that runs callbacks inline on the notifying
+     * thread.
+     */
+    public static Executor
+    directExecutor()
+    {
+        return DIRECT_EXECUTOR;
+    }
+
+    /**
+     * Returns a small shared pool of daemon threads for callbacks that
+     * must not run on the notifying thread.
+     */
+    public static Executor
+    pooledExecutor()
+    {
+        Executor e = sPooledExecutor;
+
+        if (e == null) {
+            synchronized (ExecutorRegistrant.class) {
+                e = sPooledExecutor;
+                if (e == null) {
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                            POOL_THREADS, POOL_THREADS,
+                            POOL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(),
+                            new PoolThreadFactory());
+                    pool.allowCoreThreadTimeOut(true);
+                    sPooledExecutor = e = pool;
+                }
+            }
+        }
+
+        return e;
+    }
+
+    public Callback
+    getCallback()
+    {
+        Object target = getTarget();
+
+        return target instanceof Callback ? (Callback) target : null;
+    }
+
+    @Override
+    /*package*/ void
+    internalNotifyRegistrant (Object result, Throwable exception)
+    {
+        final Callback cb = getCallback();
+
+        if (cb == null) {
+            clear();
+            return;
+        }
+
+        final int w = what;
+        final AsyncResult ar = mPooledResult
+                ? AsyncResult.obtain(userObj, result, exception)
+                : new AsyncResult(userObj, result, exception);
+
+        mExecutor.execute(() -> {
+            try {
+                cb.onResult(w, ar);
+            } finally {
+                if (mPooledResult) {
+                    ar.recycle();
+                }
+            }
+        });
+    }
+
+    /**
+     * Executor registrants have no Handler to build a Message for, so
+     * this always returns null.
+     */
+    @Override
+    public Message
+    messageForRegistrant()
+    {
+        return null;
+    }
+
+    /**
+     * Runs tasks one at a time, in submission order, on an underlying
+     * executor that may run them concurrently.
+     */
+    private static final class SerialExecutor implements Executor
+    {
+        private final Executor mTarget;
+        // Guarded by this
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+        private Runnable mActive;
+
+        SerialExecutor(Executor target)
+        {
+            mTarget = target;
+        }
+
+        @Override
+        public synchronized void
+        execute(Runnable r)
+        {
+            mTasks.add(() -> {
+                try {
+                    r.run();
+                } finally {
+                    scheduleNext();
+                }
+            });
+            if (mActive == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void
+        scheduleNext()
+        {
+            mActive = mTasks.poll();
+            if (mActive != null) {
+                mTarget.execute(mActive);
+            }
+        }
+    }
+
+    private static final class PoolThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread
+        newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "RegistrantPool-" + mCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
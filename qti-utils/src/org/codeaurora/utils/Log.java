@@ -18,6 +18,10 @@ package org.codeaurora.telephony.utils;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * Manages logging for the entire class.
@@ -34,71 +38,293 @@ public class Log {
             android.util.Log.isLoggable(TAG, android.util.Log.VERBOSE);
     public static final String TAG_DELIMETER = " : ";
 
+    private static final int MAX_BUILDER_CAPACITY = 1024;
+
+    private static final ConcurrentHashMap<Class<?>, String> sPrefixes =
+            new ConcurrentHashMap<>();
+    private static final ThreadLocal<Builder> sBuilder =
+            ThreadLocal.withInitial(Builder::new);
+
+    // Recent pii() inputs and their hashes, most recently used last
+    private static final int PII_CACHE_SIZE = 64;
+    private static final LinkedHashMap<String, String> sPiiCache =
+            new LinkedHashMap<String, String>(PII_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > PII_CACHE_SIZE;
+                }
+            };
+    private static final ThreadLocal<MessageDigest> sDigest =
+            ThreadLocal.withInitial(Log::newDigest);
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final LogSink ANDROID_SINK = (priority, tag, msg, tr) -> {
+        if (tr != null) {
+            msg = msg + '\n' + android.util.Log.getStackTraceString(tr);
+        }
+        android.util.Log.println(priority, tag, msg);
+    };
+    private static volatile LogSink sSink = ANDROID_SINK;
+
+    /**
+     * Appends a log message into the per-thread builder. Only invoked when
+     * the level is enabled.
+     */
+    public interface Appender {
+        void appendTo(StringBuilder sb);
+    }
+
     public static void d(String tag, String msg) {
         if (DEBUG) {
-            android.util.Log.d(TAG, delimit(tag) + msg);
+            println(android.util.Log.DEBUG, delimit(tag) + msg, null);
         }
     }
 
     public static void d(Object obj, String msg) {
         if (DEBUG) {
-            android.util.Log.d(TAG, getPrefix(obj) + msg);
+            println(android.util.Log.DEBUG, getPrefix(obj) + msg, null);
         }
     }
 
     public static void d(Object obj, String str1, Object str2) {
         if (DEBUG) {
-            android.util.Log.d(TAG, getPrefix(obj) + str1 + str2);
+            println(android.util.Log.DEBUG, getPrefix(obj) + str1 + str2, null);
         }
     }
 
     public static void v(Object obj, String msg) {
         if (VERBOSE) {
-            android.util.Log.v(TAG, getPrefix(obj) + msg);
+            println(android.util.Log.VERBOSE, getPrefix(obj) + msg, null);
         }
     }
 
     public static void v(Object obj, String str1, Object str2) {
         if (VERBOSE) {
-            android.util.Log.d(TAG, getPrefix(obj) + str1 + str2);
+            println(android.util.Log.DEBUG, getPrefix(obj) + str1 + str2, null);
+        }
+    }
+
+    /**
+     * Logs the message from @param msg, which is only invoked when DEBUG is
+     * enabled.
+     */
+    public static void dLazy(Object obj, Supplier<String> msg) {
+        if (DEBUG) {
+            println(android.util.Log.DEBUG, getPrefix(obj) + msg.get(), null);
+        }
+    }
+
+    public static void dAppend(Object obj, Appender appender) {
+        if (DEBUG) {
+            println(android.util.Log.DEBUG, build(obj, appender), null);
+        }
+    }
+
+    /**
+     * Logs @param pattern with each "{}" replaced by the next argument. The
+     * message is only formatted when DEBUG is enabled.
+     */
+    public static void d(Object obj, String pattern, Object arg1, Object arg2) {
+        if (DEBUG) {
+            println(android.util.Log.DEBUG, format(obj, pattern, arg1, arg2, null, 2), null);
+        }
+    }
+
+    public static void d(Object obj, String pattern, Object arg1, Object arg2, Object arg3) {
+        if (DEBUG) {
+            println(android.util.Log.DEBUG, format(obj, pattern, arg1, arg2, arg3, 3), null);
+        }
+    }
+
+    public static void vLazy(Object obj, Supplier<String> msg) {
+        if (VERBOSE) {
+            println(android.util.Log.VERBOSE, getPrefix(obj) + msg.get(), null);
+        }
+    }
+
+    public static void vAppend(Object obj, Appender appender) {
+        if (VERBOSE) {
+            println(android.util.Log.VERBOSE, build(obj, appender), null);
+        }
+    }
+
+    public static void v(Object obj, String pattern, Object arg1, Object arg2) {
+        if (VERBOSE) {
+            println(android.util.Log.VERBOSE, format(obj, pattern, arg1, arg2, null, 2), null);
+        }
+    }
+
+    public static void v(Object obj, String pattern, Object arg1, Object arg2, Object arg3) {
+        if (VERBOSE) {
+            println(android.util.Log.VERBOSE, format(obj, pattern, arg1, arg2, arg3, 3), null);
+        }
+    }
+
+    /**
+     * Logs @param msg if @param limiter lets it through. Suppressed messages
+     * are reported by the limiter in a periodic summary line.
+     */
+    public static void dLimited(LogLimiter limiter, Object obj, String msg) {
+        if (DEBUG && limiter.tryAcquire()) {
+            println(android.util.Log.DEBUG, getPrefix(obj) + msg, null);
+        }
+    }
+
+    public static void dLazy(LogLimiter limiter, Object obj, Supplier<String> msg) {
+        if (DEBUG && limiter.tryAcquire()) {
+            println(android.util.Log.DEBUG, getPrefix(obj) + msg.get(), null);
+        }
+    }
+
+    public static void vLimited(LogLimiter limiter, Object obj, String msg) {
+        if (VERBOSE && limiter.tryAcquire()) {
+            println(android.util.Log.VERBOSE, getPrefix(obj) + msg, null);
+        }
+    }
+
+    public static void vLazy(LogLimiter limiter, Object obj, Supplier<String> msg) {
+        if (VERBOSE && limiter.tryAcquire()) {
+            println(android.util.Log.VERBOSE, getPrefix(obj) + msg.get(), null);
+        }
+    }
+
+    public static void iLimited(LogLimiter limiter, Object obj, String msg) {
+        if (limiter.tryAcquire()) {
+            println(android.util.Log.INFO, getPrefix(obj) + msg, null);
+        }
+    }
+
+    public static void wLimited(LogLimiter limiter, Object obj, String msg) {
+        if (limiter.tryAcquire()) {
+            println(android.util.Log.WARN, getPrefix(obj) + msg, null);
+        }
+    }
+
+    public static void eLimited(LogLimiter limiter, Object obj, String msg) {
+        if (limiter.tryAcquire()) {
+            println(android.util.Log.ERROR, getPrefix(obj) + msg, null);
         }
     }
 
     public static void e(String tag, String msg, Exception e) {
-        android.util.Log.e(TAG, delimit(tag) + msg, e);
+        println(android.util.Log.ERROR, delimit(tag) + msg, e);
     }
 
     public static void e(String tag, String msg) {
-        android.util.Log.e(TAG, delimit(tag) + msg);
+        println(android.util.Log.ERROR, delimit(tag) + msg, null);
     }
 
     public static void e(Object obj, String msg, Exception e) {
-        android.util.Log.e(TAG, getPrefix(obj) + msg, e);
+        println(android.util.Log.ERROR, getPrefix(obj) + msg, e);
     }
 
     public static void e(Object obj, String msg) {
-        android.util.Log.e(TAG, getPrefix(obj) + msg);
+        println(android.util.Log.ERROR, getPrefix(obj) + msg, null);
     }
 
     public static void i(String tag, String msg) {
-        android.util.Log.i(TAG, delimit(tag) + msg);
+        println(android.util.Log.INFO, delimit(tag) + msg, null);
     }
 
     public static void i(Object obj, String msg) {
-        android.util.Log.i(TAG, getPrefix(obj) + msg);
+        println(android.util.Log.INFO, getPrefix(obj) + msg, null);
     }
 
     public static void w(Object obj, String msg) {
-        android.util.Log.w(TAG, getPrefix(obj) + msg);
+        println(android.util.Log.WARN, getPrefix(obj) + msg, null);
     }
 
     public static void wtf(Object obj, String msg) {
         android.util.Log.wtf(TAG, getPrefix(obj) + msg);
     }
 
+    public static void i(Object obj, String pattern, Object arg1, Object arg2) {
+        println(android.util.Log.INFO, format(obj, pattern, arg1, arg2, null, 2), null);
+    }
+
+    public static void w(Object obj, String pattern, Object arg1, Object arg2) {
+        println(android.util.Log.WARN, format(obj, pattern, arg1, arg2, null, 2), null);
+    }
+
+    public static void e(Object obj, String pattern, Object arg1, Object arg2) {
+        println(android.util.Log.ERROR, format(obj, pattern, arg1, arg2, null, 2), null);
+    }
+
+    /**
+     * Formats into the per-thread builder, replacing each "{}" in
+     * @param pattern with the next of the first @param count arguments.
+     */
+    private static String format(Object obj, String pattern, Object arg1, Object arg2,
+            Object arg3, int count) {
+        Builder b = sBuilder.get();
+        StringBuilder sb = b.acquire();
+        try {
+            appendPrefix(sb, obj);
+            int start = 0;
+            for (int i = 0; i < count; i++) {
+                int idx = pattern.indexOf("{}", start);
+                if (idx < 0) {
+                    break;
+                }
+                sb.append(pattern, start, idx);
+                sb.append(i == 0 ? arg1 : (i == 1 ? arg2 : arg3));
+                start = idx + 2;
+            }
+            sb.append(pattern, start, pattern.length());
+            return sb.toString();
+        } finally {
+            b.release(sb);
+        }
+    }
+
+    private static String build(Object obj, Appender appender) {
+        Builder b = sBuilder.get();
+        StringBuilder sb = b.acquire();
+        try {
+            appendPrefix(sb, obj);
+            appender.appendTo(sb);
+            return sb.toString();
+        } finally {
+            b.release(sb);
+        }
+    }
+
+    private static void appendPrefix(StringBuilder sb, Object obj) {
+        if (obj != null) {
+            sb.append(getPrefix(obj));
+        }
+    }
+
+
+    /**
+     * Routes log output through @param sink, for example an
+     * {@link AsyncLogSink}. Passing null restores direct android.util.Log
+     * output. wtf() always bypasses the sink.
+     */
+    public static void setSink(LogSink sink) {
+        sSink = sink != null ? sink : ANDROID_SINK;
+    }
+
+    /** Returns the sink that writes directly to android.util.Log. */
+    public static LogSink androidSink() {
+        return ANDROID_SINK;
+    }
+
+    private static void println(int priority, String msg, Throwable tr) {
+        sSink.println(priority, TAG, msg, tr);
+    }
 
     private static String getPrefix(Object obj) {
-        return (obj == null ? "" : (obj.getClass().getSimpleName() + TAG_DELIMETER));
+        if (obj == null) {
+            return "";
+        }
+        Class<?> cls = obj.getClass();
+        String prefix = sPrefixes.get(cls);
+        if (prefix == null) {
+            prefix = cls.getSimpleName() + TAG_DELIMETER;
+            sPrefixes.putIfAbsent(cls, prefix);
+        }
+        return prefix;
     }
 
     private static String delimit(String tag) {
@@ -113,32 +339,77 @@ public class Log {
         if (pii == null || VERBOSE) {
             return String.valueOf(pii);
         }
-        return "[" + secureHash(String.valueOf(pii).getBytes()) + "]";
+        String value = String.valueOf(pii);
+        synchronized (sPiiCache) {
+            String hashed = sPiiCache.get(value);
+            if (hashed != null) {
+                return hashed;
+            }
+        }
+        String hashed = "[" + secureHash(value.getBytes()) + "]";
+        synchronized (sPiiCache) {
+            sPiiCache.put(value, hashed);
+        }
+        return hashed;
     }
 
     private static String secureHash(byte[] input) {
-        MessageDigest messageDigest;
-        try {
-            messageDigest = MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException e) {
+        MessageDigest messageDigest = sDigest.get();
+        if (messageDigest == null) {
             return null;
         }
+        // digest() resets the instance for the next call on this thread
         messageDigest.update(input);
         byte[] result = messageDigest.digest();
         return encodeHex(result);
     }
 
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
     private static String encodeHex(byte[] bytes) {
-        StringBuffer hex = new StringBuffer(bytes.length * 2);
+        char[] hex = new char[bytes.length * 2];
 
         for (int i = 0; i < bytes.length; i++) {
             int byteIntValue = bytes[i] & 0xff;
-            if (byteIntValue < 0x10) {
-                hex.append("0");
+            hex[i * 2] = HEX_DIGITS[byteIntValue >>> 4];
+            hex[i * 2 + 1] = HEX_DIGITS[byteIntValue & 0x0f];
+        }
+
+        return new String(hex);
+    }
+
+    /**
+     * Per-thread StringBuilder. Falls back to a fresh builder if a message
+     * argument logs from its toString() while the shared one is in use.
+     */
+    private static final class Builder {
+        private final StringBuilder mBuilder = new StringBuilder(128);
+        private boolean mInUse;
+
+        StringBuilder acquire() {
+            if (mInUse) {
+                return new StringBuilder(128);
             }
-            hex.append(Integer.toString(byteIntValue, 16));
+            mInUse = true;
+            mBuilder.setLength(0);
+            return mBuilder;
         }
 
-        return hex.toString();
+        void release(StringBuilder sb) {
+            if (sb != mBuilder) {
+                return;
+            }
+            mInUse = false;
+            if (mBuilder.capacity() > MAX_BUILDER_CAPACITY) {
+                mBuilder.setLength(0);
+                mBuilder.trimToSize();
+            }
+        }
     }
 }
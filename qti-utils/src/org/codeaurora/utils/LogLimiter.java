@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds how often one log call site, or every call site sharing a tag,
+ * can write to the log.
+ *
+ * A message is written only if it is the n-th seen (1-in-N sampling) and
+ * a token is available in a bucket refilled at a fixed rate. Suppressed
+ * messages are counted and reported in a summary line at most once per
+ * interval; the summary is written from a timer, so a burst followed by
+ * silence still reports its drops. Typically held in a static final field
+ * next to the call site and passed to the *Limited {@link Log} methods.
+ *
+ * @hide
+ */
+public final class LogLimiter {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long SUMMARY_INTERVAL_NANOS = 10 * NANOS_PER_SECOND;
+
+    private static final ConcurrentHashMap<String, LogLimiter> sTagLimiters =
+            new ConcurrentHashMap<>();
+
+    private final String mName;
+    private final int mBurst;
+    private final long mNanosPerToken;
+    private final int mSampleEvery;
+
+    // Guarded by this
+    private long mTokens;
+    private long mLastRefillNanos;
+    private long mSeen;
+    private long mSuppressed;
+    private long mSuppressedTotal;
+    private long mLastSummaryNanos;
+    private boolean mSummaryScheduled;
+
+    private final Runnable mSummaryTask = this::writeSummary;
+
+    /**
+     * @param name printed in the suppression summary
+     * @param burst messages that may be written back to back
+     * @param perSecond sustained messages per second; 0 disables the bucket
+     * @param sampleEvery write only every n-th message; 1 writes all
+     */
+    public LogLimiter(String name, int burst, int perSecond, int sampleEvery) {
+        if (burst <= 0 || perSecond < 0 || sampleEvery <= 0) {
+            throw new IllegalArgumentException("Invalid limits for " + name);
+        }
+        mName = name;
+        mBurst = burst;
+        mNanosPerToken = perSecond == 0 ? 0 : NANOS_PER_SECOND / perSecond;
+        mSampleEvery = sampleEvery;
+        mTokens = burst;
+        mLastRefillNanos = now();
+        mLastSummaryNanos = mLastRefillNanos;
+    }
+
+    /**
+     * Returns the limiter shared by every call site logging under
+     * @param tag, creating it with the given limits on first use.
+     */
+    public static LogLimiter forTag(String tag, int burst, int perSecond, int sampleEvery) {
+        LogLimiter limiter = sTagLimiters.get(tag);
+        if (limiter == null) {
+            limiter = new LogLimiter(tag, burst, perSecond, sampleEvery);
+            LogLimiter prev = sTagLimiters.putIfAbsent(tag, limiter);
+            if (prev != null) {
+                limiter = prev;
+            }
+        }
+        return limiter;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /** Returns whether the current message may be written. */
+    public synchronized boolean tryAcquire() {
+        if (mSampleEvery > 1 && ++mSeen % mSampleEvery != 0) {
+            return suppress();
+        }
+        if (mNanosPerToken == 0) {
+            return true;
+        }
+        long now = now();
+        long elapsed = now - mLastRefillNanos;
+        if (elapsed >= mNanosPerToken) {
+            long add = elapsed / mNanosPerToken;
+            mTokens = Math.min(mBurst, mTokens + add);
+            mLastRefillNanos = mTokens == mBurst ? now : mLastRefillNanos + add * mNanosPerToken;
+        }
+        if (mTokens == 0) {
+            return suppress();
+        }
+        mTokens--;
+        return true;
+    }
+
+    public synchronized long getSuppressedCount() {
+        return mSuppressedTotal;
+    }
+
+    private boolean suppress() {
+        mSuppressed++;
+        mSuppressedTotal++;
+        if (!mSummaryScheduled) {
+            mSummaryScheduled = true;
+            long delay = Math.max(0, mLastSummaryNanos + SUMMARY_INTERVAL_NANOS - now());
+            SummaryTimer.INSTANCE.schedule(mSummaryTask, delay, TimeUnit.NANOSECONDS);
+        }
+        return false;
+    }
+
+    private void writeSummary() {
+        long suppressed;
+        synchronized (this) {
+            mSummaryScheduled = false;
+            suppressed = mSuppressed;
+            mSuppressed = 0;
+            mLastSummaryNanos = now();
+        }
+        if (suppressed > 0) {
+            Log.i(mName, "suppressed " + suppressed + " messages");
+        }
+    }
+
+    /** Daemon thread shared by all limiters for their summary lines. */
+    private static final class SummaryTimer {
+        static final ScheduledExecutorService INSTANCE = create();
+
+        private static ScheduledExecutorService create() {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "LogLimiter");
+                t.setDaemon(true);
+                return t;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            return executor;
+        }
+    }
+
+    private static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import java.io.PrintWriter;
+
+/**
+ * Variant of {@link SomeArgs} with long slots, for passing timestamps,
+ * byte counts and similar values through a message without boxing.
+ * Pooled like {@link SomeArgs}; the client must recycle an instance once
+ * it is no longer used.
+ */
+public final class LongArgs extends ArgsPool.Entry {
+
+    private static final int MAX_POOL_SIZE = 10;
+
+    private static final ArgsPool<LongArgs> sPool =
+            new ArgsPool<>("LongArgs", MAX_POOL_SIZE, LongArgs::new);
+
+    public Object arg1;
+    public Object arg2;
+    public Object arg3;
+    public Object arg4;
+    public int argi1;
+    public int argi2;
+    public int argi3;
+    public int argi4;
+    public long argl1;
+    public long argl2;
+    public long argl3;
+    public long argl4;
+    public long argl5;
+    public long argl6;
+
+    private LongArgs() {
+        /* do nothing - reduce visibility */
+    }
+
+    public static LongArgs obtain() {
+        return sPool.obtain();
+    }
+
+    public void recycle() {
+        sPool.recycle(this);
+    }
+
+    public static void dumpPool(PrintWriter pw) {
+        sPool.dump(pw);
+    }
+
+    @Override
+    void clear() {
+        arg1 = null;
+        arg2 = null;
+        arg3 = null;
+        arg4 = null;
+        argi1 = 0;
+        argi2 = 0;
+        argi3 = 0;
+        argi4 = 0;
+        argl1 = 0L;
+        argl2 = 0L;
+        argl3 = 0L;
+        argl4 = 0L;
+        argl5 = 0L;
+        argl6 = 0L;
+    }
+}
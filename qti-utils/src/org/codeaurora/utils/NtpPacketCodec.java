@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@hide}
+ *
+ * Reusable, allocation-free encoder/decoder for 48-byte NTP packets.
+ *
+ * Time stamps are kept as raw 64-bit NTP values (32.32 fixed point seconds
+ * since 1900) and all arithmetic is done on those, so no precision is lost to
+ * millisecond rounding until the caller converts a result. Differences are
+ * taken modulo 2^64, which is correct across the 2036 era rollover as long as
+ * the clocks are within 68 years of each other.
+ *
+ * One instance owns one buffer and is not thread safe; use one per thread or
+ * per client. Typical exchange:
+ * <pre>long t1 = codec.encodeRequest(System.currentTimeMillis());
+ * long ticks = SystemClock.elapsedRealtimeNanos();
+ * channel.send(codec.buffer(), server);
+ * // ... receive into codec.buffer() ...
+ * long t4 = t1 + NtpPacketCodec.nanosToNtp(SystemClock.elapsedRealtimeNanos() - ticks);
+ * if (codec.decode() && codec.checkReply(t1) == null) {
+ *     long offsetNanos = NtpPacketCodec.ntpToNanos(codec.getClockOffset(t4));
+ * }
+ * </pre>
+ */
+public final class NtpPacketCodec {
+    public static final int PACKET_SIZE = SntpClient.NTP_PACKET_SIZE;
+
+    // Fraction bits below millisecond resolution (2^-10 s < 1 ms); filled with
+    // random data so the transmit time stamp does not reveal the local clock
+    private static final int FUZZ_BITS = 22;
+    private static final long FUZZ_MASK = (1L << FUZZ_BITS) - 1;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(PACKET_SIZE);
+    private long mSeed;
+
+    // Fields of the last decoded packet
+    private int mLeap;
+    private int mVersion;
+    private int mMode;
+    private int mStratum;
+    private int mPoll;
+    private int mPrecision;
+    private int mRootDelay;
+    private int mRootDispersion;
+    private int mReferenceId;
+    private long mReferenceTime;
+    private long mOriginateTime;
+    private long mReceiveTime;
+    private long mTransmitTime;
+
+    public NtpPacketCodec() {
+        this(System.nanoTime() ^ System.identityHashCode(new Object()));
+    }
+
+    /** Creates a codec whose fuzz bits come from a generator seeded with @param seed. */
+    public NtpPacketCodec(long seed) {
+        mSeed = seed != 0 ? seed : 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Returns the packet buffer. After {@link #encodeRequest} it is ready to
+     * send; to receive, clear it, receive into it and call {@link #decode}.
+     */
+    public ByteBuffer buffer() {
+        return mBuffer;
+    }
+
+    /**
+     * Writes a client request carrying @param currentTimeMillis as transmit
+     * time stamp, with the bits below millisecond resolution randomized, and
+     * prepares the buffer for sending.
+     *
+     * @return the transmit time stamp as sent, i.e. the originate time stamp
+     *         the reply must echo and the T1 of the exchange.
+     */
+    public long encodeRequest(long currentTimeMillis) {
+        final long transmit =
+                (millisToNtp(currentTimeMillis) & ~FUZZ_MASK) | (nextRandom() & FUZZ_MASK);
+        final ByteBuffer b = mBuffer;
+        b.clear();
+        // set mode = 3 (client) and version = 3 in the first byte; rest of the header is zero
+        b.putLong(0, (long) (SntpClient.NTP_MODE_CLIENT | (SntpClient.NTP_VERSION << 3)) << 56);
+        b.putLong(SntpClient.ROOT_DISPERSION_OFFSET, 0);
+        b.putLong(SntpClient.REFERENCE_TIME_OFFSET, 0);
+        b.putLong(SntpClient.ORIGINATE_TIME_OFFSET, 0);
+        b.putLong(SntpClient.RECEIVE_TIME_OFFSET, 0);
+        b.putLong(SntpClient.TRANSMIT_TIME_OFFSET, transmit);
+        return transmit;
+    }
+
+    /**
+     * Parses the packet just received into the buffer, whose position is the
+     * received length. Reads the whole header with four int and five long
+     * big-endian loads.
+     *
+     * @return false if fewer than {@link #PACKET_SIZE} bytes were received.
+     */
+    public boolean decode() {
+        final ByteBuffer b = mBuffer;
+        if (b.position() < PACKET_SIZE) {
+            return false;
+        }
+        final int word = b.getInt(0);
+        mLeap = word >>> 30;
+        mVersion = (word >>> 27) & 0x7;
+        mMode = (word >>> 24) & 0x7;
+        mStratum = (word >>> 16) & 0xff;
+        mPoll = (byte) (word >>> 8);
+        mPrecision = (byte) word;
+        mRootDelay = b.getInt(SntpClient.ROOT_DELAY_OFFSET);
+        mRootDispersion = b.getInt(SntpClient.ROOT_DISPERSION_OFFSET);
+        mReferenceId = b.getInt(SntpClient.REFERENCE_ID_OFFSET);
+        mReferenceTime = b.getLong(SntpClient.REFERENCE_TIME_OFFSET);
+        mOriginateTime = b.getLong(SntpClient.ORIGINATE_TIME_OFFSET);
+        mReceiveTime = b.getLong(SntpClient.RECEIVE_TIME_OFFSET);
+        mTransmitTime = b.getLong(SntpClient.TRANSMIT_TIME_OFFSET);
+        return true;
+    }
+
+    /**
+     * Checks the decoded packet as a reply to a request sent with transmit time
+     * stamp @param sentTransmit.
+     *
+     * @return null if the reply is valid, otherwise the reason it is not.
+     */
+    public String checkReply(long sentTransmit) {
+        if (mLeap == SntpClient.NTP_LEAP_NOSYNC) {
+            return "unsynchronized server";
+        }
+        if (mMode != SntpClient.NTP_MODE_SERVER && mMode != SntpClient.NTP_MODE_BROADCAST) {
+            return "untrusted mode";
+        }
+        if (mStratum == SntpClient.NTP_STRATUM_DEATH || mStratum > SntpClient.NTP_STRATUM_MAX) {
+            return "untrusted stratum";
+        }
+        if (mTransmitTime == 0) {
+            return "zero transmitTime";
+        }
+        if (mOriginateTime != sentTransmit) {
+            return "originateTime mismatch";
+        }
+        return null;
+    }
+
+    /**
+     * Returns the clock offset of the server, as a signed NTP duration, for a
+     * reply that arrived at local time @param destinationTime (T4).
+     */
+    public long getClockOffset(long destinationTime) {
+        // ((T2 - T1) + (T3 - T4)) / 2, halving each term first so the sum cannot overflow
+        return ((mReceiveTime - mOriginateTime) >> 1) + ((mTransmitTime - destinationTime) >> 1);
+    }
+
+    /**
+     * Returns the round trip delay, as a signed NTP duration, for a reply that
+     * arrived at local time @param destinationTime (T4).
+     */
+    public long getRoundTripTime(long destinationTime) {
+        // (T4 - T1) - (T3 - T2)
+        return (destinationTime - mOriginateTime) - (mTransmitTime - mReceiveTime);
+    }
+
+    public int getLeap() {
+        return mLeap;
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    public int getStratum() {
+        return mStratum;
+    }
+
+    public int getPoll() {
+        return mPoll;
+    }
+
+    /** @return precision of the server clock as a log2 of seconds. */
+    public int getPrecision() {
+        return mPrecision;
+    }
+
+    /** @return root delay in NTP short format (16.16 fixed point seconds). */
+    public int getRootDelay() {
+        return mRootDelay;
+    }
+
+    /** @return root dispersion in NTP short format (16.16 fixed point seconds). */
+    public int getRootDispersion() {
+        return mRootDispersion;
+    }
+
+    public int getReferenceId() {
+        return mReferenceId;
+    }
+
+    public long getReferenceTime() {
+        return mReferenceTime;
+    }
+
+    public long getOriginateTime() {
+        return mOriginateTime;
+    }
+
+    public long getReceiveTime() {
+        return mReceiveTime;
+    }
+
+    public long getTransmitTime() {
+        return mTransmitTime;
+    }
+
+    /**
+     * Converts system time (milliseconds since January 1, 1970) to an NTP time
+     * stamp, rounding the fraction up so that {@link #ntpToMillis} gives back
+     * the same value. Zero maps to zero.
+     */
+    public static long millisToNtp(long millis) {
+        if (millis == 0) {
+            return 0;
+        }
+        final long seconds = Math.floorDiv(millis, 1000L);
+        final long ms = millis - seconds * 1000L;
+        return ((seconds + SntpClient.OFFSET_1900_TO_1970) << 32)
+                | (((ms << 32) + 999L) / 1000L);
+    }
+
+    /**
+     * Converts an NTP time stamp to system time (milliseconds since January 1,
+     * 1970), truncating. Zero maps to zero.
+     */
+    public static long ntpToMillis(long ntp) {
+        if (ntp == 0) {
+            return 0;
+        }
+        return ((ntp >>> 32) - SntpClient.OFFSET_1900_TO_1970) * 1000L
+                + (((ntp & 0xffffffffL) * 1000L) >>> 32);
+    }
+
+    /** Converts a signed NTP duration to nanoseconds. */
+    public static long ntpToNanos(long duration) {
+        return (duration >> 32) * NANOS_PER_SECOND
+                + (((duration & 0xffffffffL) * NANOS_PER_SECOND) >>> 32);
+    }
+
+    /**
+     * Converts a signed duration in nanoseconds to an NTP duration, rounding up
+     * so that {@link #ntpToNanos} gives back the same value.
+     */
+    public static long nanosToNtp(long nanos) {
+        final long seconds = Math.floorDiv(nanos, NANOS_PER_SECOND);
+        final long rem = nanos - seconds * NANOS_PER_SECOND;
+        return (seconds << 32) + ((rem << 32) + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND;
+    }
+
+    /** xorshift64*; plenty for fuzz bits and far cheaper than Math.random(). */
+    private long nextRandom() {
+        long x = mSeed;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        mSeed = x;
+        return x * 0x2545F4914F6CDD1DL;
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+
+/**
+ * {@hide}
+ *
+ * Network time source that serves corrected "now" reads between NTP queries.
+ *
+ * Keeps the last few NTP samples and fits the offset between NTP time and
+ * SystemClock.elapsedRealtime() by weighted linear regression, so the slope
+ * estimates the frequency drift of the local clock. Reads then extrapolate from
+ * the fit without any network I/O, and {@link #getNextQueryDelay} says how long
+ * until the estimated error would reach the target, so callers only query when
+ * the accuracy actually needs refreshing.
+ *
+ * Sample usage:
+ * <pre>NtpTimeSource source = new NtpTimeSource();
+ * if (client.requestTime(host, timeout, network)) {
+ *     source.addSample(client);
+ * }
+ * long now = source.currentTimeMillis();
+ * scheduleNextQuery(source.getNextQueryDelay());
+ * </pre>
+ */
+public class NtpTimeSource {
+    private static final int DEFAULT_CAPACITY = 8;
+    private static final long DEFAULT_MIN_INTERVAL_MS = 60 * 1000L;
+    private static final long DEFAULT_MAX_INTERVAL_MS = 24 * 60 * 60 * 1000L;
+    private static final double DEFAULT_TARGET_ERROR_MS = 50;
+
+    // Drift assumed until there are enough samples to estimate it (typical crystal tolerance)
+    private static final double UNKNOWN_DRIFT = 50e-6;
+    // Drift uncertainty never assumed smaller than this, since drift varies with temperature
+    private static final double MIN_DRIFT_ERROR = 1e-6;
+    // A sample this far from the fit restarts the history (e.g. the server stepped)
+    private static final double RESET_THRESHOLD_MS = 1000;
+
+    private final long[] mReference;
+    private final long[] mOffset;
+    private final long[] mRoundTrip;
+    private final long mMinInterval;
+    private final long mMaxInterval;
+    private final double mTargetError;
+    private int mHead;
+    private int mCount;
+
+    // Fit: offset(t) = mIntercept + mDrift * (t - mReference[newest])
+    private double mIntercept;
+    private double mDrift;
+    private double mDriftError = UNKNOWN_DRIFT;
+    private double mResidual;
+
+    public NtpTimeSource() {
+        this(DEFAULT_CAPACITY, DEFAULT_MIN_INTERVAL_MS, DEFAULT_MAX_INTERVAL_MS,
+                DEFAULT_TARGET_ERROR_MS);
+    }
+
+    /**
+     * @param capacity number of samples kept for the drift fit.
+     * @param minInterval lower bound for {@link #getNextQueryDelay}, in milliseconds.
+     * @param maxInterval upper bound for {@link #getNextQueryDelay}, in milliseconds.
+     * @param targetError error at which a new query is due, in milliseconds.
+     */
+    public NtpTimeSource(int capacity, long minInterval, long maxInterval, double targetError) {
+        if (capacity < 1 || minInterval > maxInterval) {
+            throw new IllegalArgumentException("capacity " + capacity + ", interval "
+                    + minInterval + ".." + maxInterval);
+        }
+        mReference = new long[capacity];
+        mOffset = new long[capacity];
+        mRoundTrip = new long[capacity];
+        mMinInterval = minInterval;
+        mMaxInterval = maxInterval;
+        mTargetError = targetError;
+    }
+
+    /**
+     * Adds the result of the last successful transaction of @param client.
+     */
+    @SuppressWarnings("deprecation")
+    public void addSample(SntpClient client) {
+        addSample(client.getNtpTime(), client.getNtpTimeReference(),
+                client.getRoundTripTime());
+    }
+
+    public void addSample(AsyncSntpClient.Result result) {
+        addSample(result.getNtpTime(), result.getNtpTimeReference(),
+                result.getRoundTripTime());
+    }
+
+    /**
+     * Adds an NTP sample.
+     *
+     * @param ntpTime time computed from the NTP server response.
+     * @param ntpTimeReference value of SystemClock.elapsedRealtime() corresponding to ntpTime.
+     * @param roundTripTime round trip time of the transaction in milliseconds.
+     */
+    public synchronized void addSample(long ntpTime, long ntpTimeReference,
+            long roundTripTime) {
+        final long offset = ntpTime - ntpTimeReference;
+        if (mCount > 0) {
+            final long newest = mReference[newest()];
+            if (ntpTimeReference <= newest) {
+                // Duplicate or late, out-of-order sample; the history is kept in
+                // memory only, so elapsedRealtime cannot have restarted under it
+                return;
+            }
+            if (Math.abs(offset - predictOffset(ntpTimeReference))
+                    > RESET_THRESHOLD_MS + roundTripTime) {
+                mCount = 0;
+            }
+        }
+        mHead = (mHead + 1) % mReference.length;
+        mReference[mHead] = ntpTimeReference;
+        mOffset[mHead] = offset;
+        mRoundTrip[mHead] = Math.max(roundTripTime, 0);
+        mCount = Math.min(mCount + 1, mReference.length);
+        fit();
+    }
+
+    /** Forgets all samples. */
+    public synchronized void clear() {
+        mCount = 0;
+        mIntercept = 0;
+        mDrift = 0;
+        mDriftError = UNKNOWN_DRIFT;
+        mResidual = 0;
+    }
+
+    public synchronized boolean hasTime() {
+        return mCount > 0;
+    }
+
+    /**
+     * Returns the drift-corrected network time, without network I/O.
+     *
+     * @throws IllegalStateException if no sample has been added.
+     */
+    public long currentTimeMillis() {
+        return currentTimeMillis(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Returns the drift-corrected network time at elapsedRealtime @param ticks.
+     */
+    public synchronized long currentTimeMillis(long ticks) {
+        if (mCount == 0) {
+            throw new IllegalStateException("no NTP sample");
+        }
+        return ticks + Math.round(predictOffset(ticks));
+    }
+
+    /**
+     * Returns the estimated error of {@link #currentTimeMillis()} in milliseconds.
+     */
+    public double getErrorEstimate() {
+        return getErrorEstimate(SystemClock.elapsedRealtime());
+    }
+
+    public synchronized double getErrorEstimate(long ticks) {
+        if (mCount == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        final long age = Math.max(ticks - mReference[newest()], 0);
+        return baseError() + age * driftUncertainty();
+    }
+
+    /** Returns the estimated drift of the local clock in parts per million. */
+    public synchronized double getDriftPpm() {
+        return mDrift * 1e6;
+    }
+
+    /**
+     * Returns how long from now, in milliseconds, until the estimated error
+     * reaches the target, bounded by the minimum and maximum intervals.
+     */
+    public long getNextQueryDelay() {
+        return getNextQueryDelay(SystemClock.elapsedRealtime());
+    }
+
+    public synchronized long getNextQueryDelay(long ticks) {
+        if (mCount == 0) {
+            return mMinInterval;
+        }
+        final double headroom = mTargetError - baseError();
+        if (headroom <= 0) {
+            return mMinInterval;
+        }
+        final long due = mReference[newest()] + (long) Math.min(headroom / driftUncertainty(),
+                (double) mMaxInterval);
+        return Math.max(mMinInterval, Math.min(mMaxInterval, due - ticks));
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("NtpTimeSource: samples=" + mCount + " driftPpm=" + mDrift * 1e6
+                + " driftErrorPpm=" + mDriftError * 1e6 + " residualMs=" + mResidual);
+        if (mCount > 0) {
+            final long now = SystemClock.elapsedRealtime();
+            pw.println("  errorMs=" + getErrorEstimate(now)
+                    + " nextQueryMs=" + getNextQueryDelay(now));
+        }
+        for (int i = 0; i < mCount; i++) {
+            final int k = index(i);
+            pw.println("  ref=" + mReference[k] + " offset=" + mOffset[k]
+                    + " rtt=" + mRoundTrip[k]);
+        }
+    }
+
+    private int newest() {
+        return mHead;
+    }
+
+    /** Returns the slot of the @param i-th oldest sample. */
+    private int index(int i) {
+        final int capacity = mReference.length;
+        return (mHead - mCount + 1 + i + capacity) % capacity;
+    }
+
+    private double predictOffset(long ticks) {
+        return mIntercept + mDrift * (ticks - mReference[newest()]);
+    }
+
+    /** Error right at the newest sample: half its round trip plus the fit residual. */
+    private double baseError() {
+        return mRoundTrip[newest()] / 2.0 + mResidual;
+    }
+
+    private double driftUncertainty() {
+        return Math.max(mDriftError, MIN_DRIFT_ERROR);
+    }
+
+    /**
+     * Weighted least squares fit of offset against elapsedRealtime. Samples are
+     * weighted by the inverse square of their round trip, which bounds their error.
+     */
+    private void fit() {
+        final long origin = mReference[newest()];
+        if (mCount < 3) {
+            // Too few points to tell drift from noise
+            mIntercept = mOffset[newest()];
+            mDrift = 0;
+            mDriftError = UNKNOWN_DRIFT;
+            mResidual = 0;
+            return;
+        }
+
+        double sw = 0, sx = 0, sy = 0;
+        for (int i = 0; i < mCount; i++) {
+            final int k = index(i);
+            final double w = weight(k);
+            sw += w;
+            sx += w * (mReference[k] - origin);
+            sy += w * mOffset[k];
+        }
+        final double mx = sx / sw;
+        final double my = sy / sw;
+        double sxx = 0, sxy = 0;
+        for (int i = 0; i < mCount; i++) {
+            final int k = index(i);
+            final double w = weight(k);
+            final double dx = (mReference[k] - origin) - mx;
+            sxx += w * dx * dx;
+            sxy += w * dx * (mOffset[k] - my);
+        }
+        if (sxx <= 0) {
+            mIntercept = my;
+            mDrift = 0;
+            mDriftError = UNKNOWN_DRIFT;
+            mResidual = 0;
+            return;
+        }
+        mDrift = sxy / sxx;
+        mIntercept = my - mDrift * mx;
+
+        double srr = 0;
+        for (int i = 0; i < mCount; i++) {
+            final int k = index(i);
+            final double r = mOffset[k] - (mIntercept + mDrift * (mReference[k] - origin));
+            srr += weight(k) * r * r;
+        }
+        final double variance = srr / (mCount - 2);
+        mResidual = Math.sqrt(variance / sw * mCount);
+        mDriftError = Math.sqrt(variance / sxx);
+    }
+
+    private double weight(int k) {
+        final double rtt = mRoundTrip[k] + 1.0;
+        return 1.0 / (rtt * rtt);
+    }
+}
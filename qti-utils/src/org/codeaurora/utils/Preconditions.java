@@ -70,6 +70,122 @@ public class Preconditions {
         }
     }
 
+    /**
+     * Ensures that an expression checking an argument is true.
+     *
+     * <p>Unlike {@link #checkArgument(boolean, String, Object...)} these fixed-arity
+     * overloads neither box primitives nor allocate a varargs array, and the message
+     * is only formatted if the check fails.</p>
+     *
+     * @param expression the expression to check
+     * @param messageTemplate a printf-style message template to use if the check fails
+     * @throws IllegalArgumentException if {@code expression} is false
+     */
+    public static void checkArgument(boolean expression,
+            final String messageTemplate,
+            final int arg1) {
+        if (!expression) {
+            throw new IllegalArgumentException(String.format(messageTemplate, arg1));
+        }
+    }
+
+    /**
+     * Variant of {@link #checkArgument(boolean, String, int)} with two int arguments.
+     */
+    public static void checkArgument(boolean expression,
+            final String messageTemplate,
+            final int arg1,
+            final int arg2) {
+        if (!expression) {
+            throw new IllegalArgumentException(String.format(messageTemplate, arg1, arg2));
+        }
+    }
+
+    /**
+     * Variant of {@link #checkArgument(boolean, String, int)} with three int arguments.
+     */
+    public static void checkArgument(boolean expression,
+            final String messageTemplate,
+            final int arg1,
+            final int arg2,
+            final int arg3) {
+        if (!expression) {
+            throw new IllegalArgumentException(String.format(messageTemplate, arg1, arg2, arg3));
+        }
+    }
+
+    /**
+     * Variant of {@link #checkArgument(boolean, String, int)} with one long argument.
+     */
+    public static void checkArgument(boolean expression,
+            final String messageTemplate,
+            final long arg1) {
+        if (!expression) {
+            throw new IllegalArgumentException(String.format(messageTemplate, arg1));
+        }
+    }
+
+    /**
+     * Variant of {@link #checkArgument(boolean, String, int)} with two long arguments.
+     */
+    public static void checkArgument(boolean expression,
+            final String messageTemplate,
+            final long arg1,
+            final long arg2) {
+        if (!expression) {
+            throw new IllegalArgumentException(String.format(messageTemplate, arg1, arg2));
+        }
+    }
+
+    /**
+     * Variant of {@link #checkArgument(boolean, String, int)} with three long arguments.
+     */
+    public static void checkArgument(boolean expression,
+            final String messageTemplate,
+            final long arg1,
+            final long arg2,
+            final long arg3) {
+        if (!expression) {
+            throw new IllegalArgumentException(String.format(messageTemplate, arg1, arg2, arg3));
+        }
+    }
+
+    /**
+     * Variant of {@link #checkArgument(boolean, String, int)} with one Object argument.
+     */
+    public static void checkArgument(boolean expression,
+            final String messageTemplate,
+            final Object arg1) {
+        if (!expression) {
+            throw new IllegalArgumentException(String.format(messageTemplate, arg1));
+        }
+    }
+
+    /**
+     * Variant of {@link #checkArgument(boolean, String, int)} with two Object arguments.
+     */
+    public static void checkArgument(boolean expression,
+            final String messageTemplate,
+            final Object arg1,
+            final Object arg2) {
+        if (!expression) {
+            throw new IllegalArgumentException(String.format(messageTemplate, arg1, arg2));
+        }
+    }
+
+    /**
+     * Variant of {@link #checkArgument(boolean, String, int)} with three Object arguments.
+     */
+    public static void checkArgument(boolean expression,
+            final String messageTemplate,
+            final Object arg1,
+            final Object arg2,
+            final Object arg3) {
+        if (!expression) {
+            throw new IllegalArgumentException(String.format(messageTemplate, arg1, arg2, arg3));
+        }
+    }
+
     /**
      * Ensures that an string reference passed as a parameter to the calling
      * method is not empty.
@@ -155,6 +271,37 @@ public class Preconditions {
         return reference;
     }
 
+    /**
+     * Ensures that an object reference passed as a parameter to the calling
+     * method is not null, formatting the message only if the check fails.
+     *
+     * @param reference an object reference
+     * @param messageTemplate a printf-style message template to use if the check fails
+     * @return the non-null reference that was validated
+     * @throws NullPointerException if {@code reference} is null
+     */
+    public static @NonNull <T> T checkNotNull(final T reference,
+            final String messageTemplate,
+            final Object arg1) {
+        if (reference == null) {
+            throw new NullPointerException(String.format(messageTemplate, arg1));
+        }
+        return reference;
+    }
+
+    /**
+     * Variant of {@link #checkNotNull(Object, String, Object)} with two arguments.
+     */
+    public static @NonNull <T> T checkNotNull(final T reference,
+            final String messageTemplate,
+            final Object arg1,
+            final Object arg2) {
+        if (reference == null) {
+            throw new NullPointerException(String.format(messageTemplate, arg1, arg2));
+        }
+        return reference;
+    }
+
     /**
      * Ensures the truth of an expression involving the state of the calling
      * instance, but not involving any parameters to the calling method.
@@ -479,7 +626,9 @@ public class Preconditions {
      */
     public static float[] checkArrayElementsInRange(float[] value, float lower, float upper,
             String valueName) {
-        checkNotNull(value, valueName + " must not be null");
+        if (value == null) {
+            throw new NullPointerException(valueName + " must not be null");
+        }
 
         for (int i = 0; i < value.length; ++i) {
             float v = value[i];
@@ -515,7 +664,9 @@ public class Preconditions {
      */
     public static int[] checkArrayElementsInRange(int[] value, int lower, int upper,
             String valueName) {
-        checkNotNull(value, valueName + " must not be null");
+        if (value == null) {
+            throw new NullPointerException(valueName + " must not be null");
+        }
 
         for (int i = 0; i < value.length; ++i) {
             int v = value[i];
@@ -24,6 +24,7 @@ package org.codeaurora.telephony.utils;
 import android.os.Handler;
 import android.os.Message;
 
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 
 /** @hide */
@@ -32,14 +33,37 @@ public class Registrant
     public
     Registrant(Handler h, int what, Object obj)
     {
-        refH = new WeakReference(h);
+        this(h, what, obj, false);
+    }
+
+    /**
+     * @param pooledResult if true, notifications carry an AsyncResult drawn
+     *        from {@link AsyncResult#obtain} and the Handler must call
+     *        {@link AsyncResult#recycle} on msg.obj after handling it.
+     */
+    public
+    Registrant(Handler h, int what, Object obj, boolean pooledResult)
+    {
+        this((Object) h, what, obj, pooledResult);
+    }
+
+    /*package*/
+    Registrant(Object target, int what, Object obj, boolean pooledResult)
+    {
+        refH = new TargetRef(target, this);
         this.what = what;
         userObj = obj;
+        mPooledResult = pooledResult;
     }
 
     public void
     clear()
     {
+        RegistrantList owner = mOwner;
+
+        if (refH != null && owner != null) {
+            owner.onRegistrantCleared();
+        }
         refH = null;
         userObj = null;
     }
@@ -83,7 +107,9 @@ public class Registrant
 
             msg.what = what;
 
-            msg.obj = new AsyncResult(userObj, result, exception);
+            msg.obj = mPooledResult
+                    ? AsyncResult.obtain(userObj, result, exception)
+                    : new AsyncResult(userObj, result, exception);
 
             h.sendMessage(msg);
         }
@@ -115,14 +141,59 @@ public class Registrant
     public Handler
     getHandler()
     {
-        if (refH == null)
-            return null;
+        Object target = getTarget();
+
+        return target instanceof Handler ? (Handler) target : null;
+    }
+
+    /**
+     * Returns the Handler or listener this registrant delivers to, or null
+     * once it has been cleared or collected.
+     */
+    /*package*/ Object
+    getTarget()
+    {
+        WeakReference ref = refH;
+
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * Clears every registrant whose target has been collected since the
+     * last call, so the owning lists only rescan when something went stale.
+     */
+    /*package*/ static void
+    drainCollected()
+    {
+        TargetRef ref;
 
-        return (Handler) refH.get();
+        while ((ref = (TargetRef) sCollected.poll()) != null) {
+            Registrant r = ref.mRegistrant;
+
+            if (r.refH == ref) {
+                r.clear();
+            }
+        }
+    }
+
+    private static final class TargetRef extends WeakReference<Object>
+    {
+        final Registrant mRegistrant;
+
+        TargetRef(Object target, Registrant r)
+        {
+            super(target, sCollected);
+            mRegistrant = r;
+        }
     }
 
+    private static final ReferenceQueue<Object> sCollected = new ReferenceQueue<>();
+
     WeakReference   refH;
     int             what;
     Object          userObj;
+    final boolean   mPooledResult;
+    // List this registrant was last added to, told when it goes stale
+    volatile RegistrantList mOwner;
 }
 
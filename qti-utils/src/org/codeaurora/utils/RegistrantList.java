@@ -23,17 +23,77 @@ package org.codeaurora.telephony.utils;
 
 import android.os.Handler;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** @hide */
 public class RegistrantList
 {
-    ArrayList   registrants = new ArrayList();      // of Registrant
+    ArrayList   registrants;      // of Registrant
+
+    // Registrants cleared since the last sweep; add() only rescans when > 0
+    final AtomicInteger mPendingCleared = new AtomicInteger();
+    // Total stale registrants removed from this list, guarded by this
+    long mReclaimedCount;
+    private volatile RegistrantListStats mStats;
+    // Identifies this list in BinaryEventLog records; 0 means identity hash
+    private volatile int mTraceId;
+
+    public
+    RegistrantList()
+    {
+        this(new ArrayList());
+    }
+
+    /**
+     * For subclasses that keep their registrants elsewhere; they pass null
+     * and must override every method that touches @param registrants.
+     */
+    /*package*/
+    RegistrantList(ArrayList registrants)
+    {
+        this.registrants = registrants;
+    }
 
     public synchronized void
     add(Handler h, int what, Object obj)
     {
-        add(new Registrant(h, what, obj));
+        add(newRegistrant(h, what, obj, false));
+    }
+
+    /**
+     * Like {@link #add(Handler, int, Object)}, but @param h receives pooled
+     * AsyncResults and must recycle msg.obj after handling each message.
+     */
+    public synchronized void
+    addPooled(Handler h, int what, Object obj)
+    {
+        add(newRegistrant(h, what, obj, true));
+    }
+
+    /**
+     * Registers @param callback to be run on @param executor for each
+     * notification. Only a weak reference to the callback is kept, so the
+     * caller must hold it for as long as it wants results.
+     */
+    public synchronized void
+    add(Executor executor, ExecutorRegistrant.Callback callback, int what,
+            Object obj)
+    {
+        add(new ExecutorRegistrant(executor, callback, what, obj, false));
+    }
+
+    /**
+     * Like {@link #add(Executor, ExecutorRegistrant.Callback, int, Object)}
+     * with {@link ExecutorRegistrant#directExecutor}: the callback runs
+     * on the notifying thread and must be thread-safe and quick.
+     */
+    public synchronized void
+    addDirect(ExecutorRegistrant.Callback callback, int what, Object obj)
+    {
+        add(ExecutorRegistrant.directExecutor(), callback, what, obj);
     }
 
     public synchronized void
@@ -41,28 +101,60 @@ public class RegistrantList
     {
         // if the handler is already in the registrant list, remove it
         remove(h);
-        add(new Registrant(h, what, obj));
+        add(newRegistrant(h, what, obj, false));
+    }
+
+    /**
+     * Creates the Registrant used by the Handler-based add methods, so
+     * variants can change how notifications are delivered.
+     */
+    /*package*/ Registrant
+    newRegistrant(Handler h, int what, Object obj, boolean pooledResult)
+    {
+        return new Registrant(h, what, obj, pooledResult);
     }
 
     public synchronized void
     add(Registrant r)
     {
-        removeCleared();
+        Registrant.drainCollected();
+        if (mPendingCleared.get() > 0) {
+            removeCleared();
+        }
+        r.mOwner = this;
         registrants.add(r);
     }
 
     public synchronized void
     removeCleared()
     {
+        mPendingCleared.set(0);
         for (int i = registrants.size() - 1; i >= 0 ; i--) {
             Registrant  r = (Registrant) registrants.get(i);
 
             if (r.refH == null) {
                 registrants.remove(i);
+                mReclaimedCount++;
             }
         }
     }
 
+    /**
+     * Returns how many cleared or collected registrants have been
+     * removed from this list.
+     */
+    public synchronized long
+    getReclaimedCount()
+    {
+        return mReclaimedCount;
+    }
+
+    /*package*/ void
+    onRegistrantCleared()
+    {
+        mPendingCleared.incrementAndGet();
+    }
+
     public synchronized int
     size()
     {
@@ -75,7 +167,7 @@ public class RegistrantList
         return registrants.get(index);
     }
 
-    private synchronized void
+    /*package*/ synchronized void
     internalNotifyRegistrants (Object result, Throwable exception)
     {
        for (int i = 0, s = registrants.size(); i < s ; i++) {
@@ -84,48 +176,131 @@ public class RegistrantList
        }
     }
 
+    private void
+    dispatch (Object result, Throwable exception)
+    {
+        RegistrantListStats stats = mStats;
+        BinaryEventLog events = BinaryEventLog.getDefault();
+
+        if (stats == null && events == null) {
+            internalNotifyRegistrants(result, exception);
+            return;
+        }
+
+        int size = size();
+        long start = RegistrantListStats.now();
+        internalNotifyRegistrants(result, exception);
+        if (stats != null) {
+            stats.onFanOut(this, size, start);
+        }
+        if (events != null) {
+            int id = mTraceId != 0 ? mTraceId : System.identityHashCode(this);
+            events.log(BinaryEventLog.EVENT_REGISTRANT_FAN_OUT,
+                    ((long) id << 32) | size, RegistrantListStats.now() - start);
+        }
+    }
+
     public /*synchronized*/ void
     notifyRegistrants()
     {
-        internalNotifyRegistrants(null, null);
+        dispatch(null, null);
     }
 
     public /*synchronized*/ void
     notifyException(Throwable exception)
     {
-        internalNotifyRegistrants (null, exception);
+        dispatch (null, exception);
     }
 
     public /*synchronized*/ void
     notifyResult(Object result)
     {
-        internalNotifyRegistrants (result, null);
+        dispatch (result, null);
     }
 
 
     public /*synchronized*/ void
     notifyRegistrants(AsyncResult ar)
     {
-        internalNotifyRegistrants(ar.result, ar.exception);
+        dispatch(ar.result, ar.exception);
+    }
+
+    /**
+     * Enables dispatch instrumentation for this list, or disables it if
+     * @param stats is null.
+     */
+    public void
+    setStats(RegistrantListStats stats)
+    {
+        mStats = stats;
+    }
+
+    public RegistrantListStats
+    getStats()
+    {
+        return mStats;
+    }
+
+    /**
+     * Sets the id that identifies this list in BinaryEventLog fan-out
+     * records, typically the indication's event constant. Defaults to the
+     * list's identity hash code.
+     */
+    public void
+    setTraceId(int id)
+    {
+        mTraceId = id;
+    }
+
+    public void
+    dump(PrintWriter pw)
+    {
+        pw.println(getClass().getSimpleName() + ": size=" + size()
+                + " reclaimed=" + getReclaimedCount());
+        RegistrantListStats stats = mStats;
+        if (stats != null) {
+            stats.dump(pw);
+        }
     }
 
     public synchronized void
     remove(Handler h)
     {
-        for (int i = 0, s = registrants.size() ; i < s ; i++) {
+        removeTarget(h);
+    }
+
+    /**
+     * Removes the registrants added for @param callback through
+     * {@link #add(Executor, ExecutorRegistrant.Callback, int, Object)}.
+     */
+    public synchronized void
+    remove(ExecutorRegistrant.Callback callback)
+    {
+        removeTarget(callback);
+    }
+
+    /*package*/ synchronized void
+    removeTarget(Object target)
+    {
+        Registrant.drainCollected();
+        mPendingCleared.set(0);
+        for (int i = registrants.size() - 1; i >= 0 ; i--) {
             Registrant  r = (Registrant) registrants.get(i);
-            Handler     rh;
+            Object      rt;
 
-            rh = r.getHandler();
+            rt = r.getTarget();
 
             /* Clean up both the requested registrant and
              * any now-collected registrants
              */
-            if (rh == null || rh == h) {
+            if (rt == null) {
+                registrants.remove(i);
+                mReclaimedCount++;
+            } else if (rt == target) {
+                r.mOwner = null;
                 r.clear();
+                registrants.remove(i);
             }
         }
-
-        removeCleared();
     }
 }
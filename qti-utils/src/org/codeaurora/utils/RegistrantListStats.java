@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional dispatch instrumentation for a {@link RegistrantList}.
+ *
+ * Records how long each fan-out takes and how many registrants it
+ * reached. Every {@code probeInterval}-th fan-out it also posts a probe
+ * behind the notification on each registrant Handler, measuring how long
+ * the event waited in that Handler's queue before it was handled.
+ *
+ * @hide
+ */
+public final class RegistrantListStats {
+
+    private final String mName;
+    private final int mProbeInterval;
+    private final AtomicLong mFanOuts = new AtomicLong();
+
+    private final Histogram mFanOutMicros = new Histogram("us");
+    private final Histogram mRegistrants = new Histogram("");
+    private final Histogram mHandleLatencyMicros = new Histogram("us");
+
+    /**
+     * @param name printed in {@link #dump}, typically the indication name
+     * @param probeInterval probe Handler latency every n-th fan-out, or 0
+     *        to never probe
+     */
+    public RegistrantListStats(String name, int probeInterval) {
+        mName = name;
+        mProbeInterval = probeInterval;
+    }
+
+    public Histogram getFanOutMicros() {
+        return mFanOutMicros;
+    }
+
+    public Histogram getRegistrantCounts() {
+        return mRegistrants;
+    }
+
+    public Histogram getHandleLatencyMicros() {
+        return mHandleLatencyMicros;
+    }
+
+    /*package*/ static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Records a completed fan-out to @param size registrants that started
+     * at @param startNanos and, when this one is sampled, probes each
+     * Handler in @param list. @param size is taken before dispatch, since
+     * registrants found cleared during it are removed from the list.
+     */
+    /*package*/ void onFanOut(RegistrantList list, int size, long startNanos) {
+        long end = now();
+
+        mFanOutMicros.record((end - startNanos) / 1000);
+        mRegistrants.record(size);
+
+        long n = mFanOuts.incrementAndGet();
+        if (mProbeInterval <= 0 || n % mProbeInterval != 0) {
+            return;
+        }
+
+        for (int i = 0; i < size; i++) {
+            Registrant r;
+            try {
+                r = (Registrant) list.get(i);
+            } catch (IndexOutOfBoundsException e) {
+                // The list shrank underneath us
+                break;
+            }
+            Handler h = r.getHandler();
+            if (h != null) {
+                h.post(new Probe(startNanos));
+            }
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("RegistrantListStats " + mName + ": fanOuts=" + mFanOuts.get());
+        pw.println("  fan-out duration:");
+        mFanOutMicros.dump(pw, "    ");
+        pw.println("  registrants per fan-out:");
+        mRegistrants.dump(pw, "    ");
+        pw.println("  enqueue-to-handle latency:");
+        mHandleLatencyMicros.dump(pw, "    ");
+    }
+
+    private final class Probe implements Runnable {
+        private final long mStartNanos;
+
+        Probe(long startNanos) {
+            mStartNanos = startNanos;
+        }
+
+        @Override
+        public void run() {
+            mHandleLatencyMicros.record((now() - mStartNanos) / 1000);
+        }
+    }
+}
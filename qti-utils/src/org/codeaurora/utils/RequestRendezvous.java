@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Turns a result produced on a Handler thread into a synchronous answer,
+ * using the wait state built into {@link SomeArgs}.
+ *
+ * The requesting thread calls {@link #obtain}, packs its arguments and
+ * posts the SomeArgs to the Handler, then blocks in {@link #await} or
+ * adapts it with {@link #asFuture}. The Handler stores its result in the
+ * SomeArgs and calls {@link SomeArgs#complete}. Once the requester has read
+ * the result it calls {@link #finish} to return the instance to the pool.
+ *
+ * If the requester times out or cancels, the request is abandoned and the
+ * eventual complete() recycles the instance instead. Requests that never
+ * complete stay in the outstanding set reported by {@link #dump} for as
+ * long as something else still references them; the set holds them
+ * weakly, so an unreachable request is left to the SomeArgs leak tracker.
+ *
+ * @hide
+ */
+public final class RequestRendezvous {
+
+    // Iteration must hold the set's lock
+    private static final Set<SomeArgs> sOutstanding =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private RequestRendezvous() {
+        /* static utility */
+    }
+
+    /**
+     * Returns a SomeArgs in the waiting state, tracked under @param name
+     * until it is completed.
+     */
+    public static SomeArgs obtain(String name) {
+        SomeArgs args = SomeArgs.obtain();
+        args.mWaitState = SomeArgs.WAIT_WAITING;
+        args.mWaitName = name;
+        args.mWaitStartMillis = SystemClock.elapsedRealtime();
+        sOutstanding.add(args);
+        return args;
+    }
+
+    /**
+     * Blocks until @param args is completed or @param timeoutMillis
+     * elapses.
+     *
+     * @return true if the request completed and its result can be read;
+     *         false if it timed out or was cancelled, in which case the
+     *         caller must not touch @param args again.
+     */
+    public static boolean await(SomeArgs args, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+        synchronized (args) {
+            try {
+                while (args.mWaitState == SomeArgs.WAIT_WAITING) {
+                    long remaining = deadline - SystemClock.elapsedRealtime();
+                    if (remaining <= 0) {
+                        abandonLocked(args);
+                        return false;
+                    }
+                    args.wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                abandonLocked(args);
+                throw e;
+            }
+            return args.mWaitState == SomeArgs.WAIT_FINISHED;
+        }
+    }
+
+    /**
+     * Returns a future that completes with @param args once the Handler
+     * calls complete(). Cancelling the future cancels the request.
+     */
+    public static CompletableFuture<SomeArgs> asFuture(SomeArgs args) {
+        CompletableFuture<SomeArgs> future;
+        boolean finished;
+        synchronized (args) {
+            if (args.mFuture == null) {
+                args.mFuture = new CompletableFuture<>();
+                args.mFuture.whenComplete((result, error) -> {
+                    if (error instanceof CancellationException) {
+                        cancel(args);
+                    }
+                });
+            }
+            future = args.mFuture;
+            finished = args.mWaitState == SomeArgs.WAIT_FINISHED;
+        }
+        if (finished) {
+            future.complete(args);
+        }
+        return future;
+    }
+
+    /**
+     * Abandons a request that is still waiting, waking any thread blocked
+     * in {@link #await}.
+     *
+     * @return true if the request was still waiting.
+     */
+    public static boolean cancel(SomeArgs args) {
+        CompletableFuture<SomeArgs> future;
+        synchronized (args) {
+            if (args.mWaitState != SomeArgs.WAIT_WAITING) {
+                return false;
+            }
+            abandonLocked(args);
+            future = args.mFuture;
+        }
+        if (future != null) {
+            future.cancel(false);
+        }
+        return true;
+    }
+
+    /**
+     * Returns a completed request to the pool once its result has been
+     * read. Does nothing for abandoned requests, which are recycled by
+     * complete().
+     */
+    public static void finish(SomeArgs args) {
+        synchronized (args) {
+            if (args.mWaitState != SomeArgs.WAIT_FINISHED) {
+                return;
+            }
+            args.mWaitState = SomeArgs.WAIT_NONE;
+        }
+        args.recycle();
+    }
+
+    public static int getOutstandingCount() {
+        return sOutstanding.size();
+    }
+
+    /**
+     * Returns the age of the oldest request still waiting for complete(),
+     * or 0 if there are none.
+     */
+    public static long getOldestAgeMillis() {
+        long now = SystemClock.elapsedRealtime();
+        long oldest = 0;
+        synchronized (sOutstanding) {
+            for (SomeArgs args : sOutstanding) {
+                oldest = Math.max(oldest, now - args.mWaitStartMillis);
+            }
+        }
+        return oldest;
+    }
+
+    public static void dump(PrintWriter pw) {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (sOutstanding) {
+            pw.println("RequestRendezvous: outstanding=" + sOutstanding.size());
+            for (SomeArgs args : sOutstanding) {
+                pw.println("  " + args.mWaitName + " age=" + (now - args.mWaitStartMillis) + "ms"
+                        + (args.mWaitState == SomeArgs.WAIT_ABANDONED ? " abandoned" : ""));
+            }
+        }
+    }
+
+    /*package*/ static void untrack(SomeArgs args) {
+        sOutstanding.remove(args);
+    }
+
+    private static void abandonLocked(SomeArgs args) {
+        if (args.mWaitState == SomeArgs.WAIT_WAITING) {
+            args.mWaitState = SomeArgs.WAIT_ABANDONED;
+            args.notifyAll();
+        }
+    }
+}
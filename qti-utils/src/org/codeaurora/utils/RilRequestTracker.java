@@ -0,0 +1,606 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+
+/**
+ * Measures modem round trips per RIL request type.
+ *
+ * Call {@link #onRequestSent} when a request goes out and
+ * {@link #onResponse} when its response arrives. Each request ID gets a
+ * fixed-memory latency {@link Histogram}; IDs above the highest request
+ * known to {@link RILConstants} share one "other" histogram. Outstanding requests live in a
+ * fixed ring indexed by serial, so memory does not grow with traffic. A
+ * request that is still outstanding when its slot is reused, or that
+ * {@link #collectTimedOut} finds too old, is counted as timed out.
+ *
+ * @hide
+ */
+public final class RilRequestTracker {
+
+    private static final String TAG = "RilRequestTracker";
+
+    // Per-request statistics are indexed by ID; anything out of range goes
+    // to the OTHER slot at the end
+    private static final int OTHER = RILConstants.RIL_REQUEST_SET_PREFERRED_DATA_MODEM + 1;
+
+    private final int mMask;
+    // Outstanding requests, slot = serial & mMask; guarded by this
+    private final int[] mSerials;
+    private final int[] mRequestIds;
+    private final long[] mSentNanos;
+    private final boolean[] mPending;
+
+    private final Histogram[] mLatencyMicros = new Histogram[OTHER + 1];
+    private final long[] mErrors = new long[OTHER + 1];
+    private final long[] mTimeouts = new long[OTHER + 1];
+    private long mUnmatchedResponses;
+
+    /**
+     * @param maxOutstanding number of in-flight requests tracked, rounded
+     *        up to a power of two
+     */
+    public RilRequestTracker(int maxOutstanding) {
+        int size = Integer.highestOneBit(Math.max(1, maxOutstanding - 1)) << 1;
+        mMask = size - 1;
+        mSerials = new int[size];
+        mRequestIds = new int[size];
+        mSentNanos = new long[size];
+        mPending = new boolean[size];
+    }
+
+    /** Returns the RILConstants name of request @param id. */
+    public static String requestToString(int id) {
+        switch (id) {
+            case RILConstants.RIL_REQUEST_GET_SIM_STATUS:
+                return "GET_SIM_STATUS";
+            case RILConstants.RIL_REQUEST_ENTER_SIM_PIN:
+                return "ENTER_SIM_PIN";
+            case RILConstants.RIL_REQUEST_ENTER_SIM_PUK:
+                return "ENTER_SIM_PUK";
+            case RILConstants.RIL_REQUEST_ENTER_SIM_PIN2:
+                return "ENTER_SIM_PIN2";
+            case RILConstants.RIL_REQUEST_ENTER_SIM_PUK2:
+                return "ENTER_SIM_PUK2";
+            case RILConstants.RIL_REQUEST_CHANGE_SIM_PIN:
+                return "CHANGE_SIM_PIN";
+            case RILConstants.RIL_REQUEST_CHANGE_SIM_PIN2:
+                return "CHANGE_SIM_PIN2";
+            case RILConstants.RIL_REQUEST_ENTER_NETWORK_DEPERSONALIZATION:
+                return "ENTER_NETWORK_DEPERSONALIZATION";
+            case RILConstants.RIL_REQUEST_GET_CURRENT_CALLS:
+                return "GET_CURRENT_CALLS";
+            case RILConstants.RIL_REQUEST_DIAL:
+                return "DIAL";
+            case RILConstants.RIL_REQUEST_GET_IMSI:
+                return "GET_IMSI";
+            case RILConstants.RIL_REQUEST_HANGUP:
+                return "HANGUP";
+            case RILConstants.RIL_REQUEST_HANGUP_WAITING_OR_BACKGROUND:
+                return "HANGUP_WAITING_OR_BACKGROUND";
+            case RILConstants.RIL_REQUEST_HANGUP_FOREGROUND_RESUME_BACKGROUND:
+                return "HANGUP_FOREGROUND_RESUME_BACKGROUND";
+            case RILConstants.RIL_REQUEST_SWITCH_WAITING_OR_HOLDING_AND_ACTIVE:
+                return "SWITCH_WAITING_OR_HOLDING_AND_ACTIVE";
+            case RILConstants.RIL_REQUEST_CONFERENCE:
+                return "CONFERENCE";
+            case RILConstants.RIL_REQUEST_UDUB:
+                return "UDUB";
+            case RILConstants.RIL_REQUEST_LAST_CALL_FAIL_CAUSE:
+                return "LAST_CALL_FAIL_CAUSE";
+            case RILConstants.RIL_REQUEST_SIGNAL_STRENGTH:
+                return "SIGNAL_STRENGTH";
+            case RILConstants.RIL_REQUEST_VOICE_REGISTRATION_STATE:
+                return "VOICE_REGISTRATION_STATE";
+            case RILConstants.RIL_REQUEST_DATA_REGISTRATION_STATE:
+                return "DATA_REGISTRATION_STATE";
+            case RILConstants.RIL_REQUEST_OPERATOR:
+                return "OPERATOR";
+            case RILConstants.RIL_REQUEST_RADIO_POWER:
+                return "RADIO_POWER";
+            case RILConstants.RIL_REQUEST_DTMF:
+                return "DTMF";
+            case RILConstants.RIL_REQUEST_SEND_SMS:
+                return "SEND_SMS";
+            case RILConstants.RIL_REQUEST_SEND_SMS_EXPECT_MORE:
+                return "SEND_SMS_EXPECT_MORE";
+            case RILConstants.RIL_REQUEST_SETUP_DATA_CALL:
+                return "SETUP_DATA_CALL";
+            case RILConstants.RIL_REQUEST_SIM_IO:
+                return "SIM_IO";
+            case RILConstants.RIL_REQUEST_SEND_USSD:
+                return "SEND_USSD";
+            case RILConstants.RIL_REQUEST_CANCEL_USSD:
+                return "CANCEL_USSD";
+            case RILConstants.RIL_REQUEST_GET_CLIR:
+                return "GET_CLIR";
+            case RILConstants.RIL_REQUEST_SET_CLIR:
+                return "SET_CLIR";
+            case RILConstants.RIL_REQUEST_QUERY_CALL_FORWARD_STATUS:
+                return "QUERY_CALL_FORWARD_STATUS";
+            case RILConstants.RIL_REQUEST_SET_CALL_FORWARD:
+                return "SET_CALL_FORWARD";
+            case RILConstants.RIL_REQUEST_QUERY_CALL_WAITING:
+                return "QUERY_CALL_WAITING";
+            case RILConstants.RIL_REQUEST_SET_CALL_WAITING:
+                return "SET_CALL_WAITING";
+            case RILConstants.RIL_REQUEST_SMS_ACKNOWLEDGE:
+                return "SMS_ACKNOWLEDGE";
+            case RILConstants.RIL_REQUEST_GET_IMEI:
+                return "GET_IMEI";
+            case RILConstants.RIL_REQUEST_GET_IMEISV:
+                return "GET_IMEISV";
+            case RILConstants.RIL_REQUEST_ANSWER:
+                return "ANSWER";
+            case RILConstants.RIL_REQUEST_DEACTIVATE_DATA_CALL:
+                return "DEACTIVATE_DATA_CALL";
+            case RILConstants.RIL_REQUEST_QUERY_FACILITY_LOCK:
+                return "QUERY_FACILITY_LOCK";
+            case RILConstants.RIL_REQUEST_SET_FACILITY_LOCK:
+                return "SET_FACILITY_LOCK";
+            case RILConstants.RIL_REQUEST_CHANGE_BARRING_PASSWORD:
+                return "CHANGE_BARRING_PASSWORD";
+            case RILConstants.RIL_REQUEST_QUERY_NETWORK_SELECTION_MODE:
+                return "QUERY_NETWORK_SELECTION_MODE";
+            case RILConstants.RIL_REQUEST_SET_NETWORK_SELECTION_AUTOMATIC:
+                return "SET_NETWORK_SELECTION_AUTOMATIC";
+            case RILConstants.RIL_REQUEST_SET_NETWORK_SELECTION_MANUAL:
+                return "SET_NETWORK_SELECTION_MANUAL";
+            case RILConstants.RIL_REQUEST_QUERY_AVAILABLE_NETWORKS:
+                return "QUERY_AVAILABLE_NETWORKS";
+            case RILConstants.RIL_REQUEST_DTMF_START:
+                return "DTMF_START";
+            case RILConstants.RIL_REQUEST_DTMF_STOP:
+                return "DTMF_STOP";
+            case RILConstants.RIL_REQUEST_BASEBAND_VERSION:
+                return "BASEBAND_VERSION";
+            case RILConstants.RIL_REQUEST_SEPARATE_CONNECTION:
+                return "SEPARATE_CONNECTION";
+            case RILConstants.RIL_REQUEST_SET_MUTE:
+                return "SET_MUTE";
+            case RILConstants.RIL_REQUEST_GET_MUTE:
+                return "GET_MUTE";
+            case RILConstants.RIL_REQUEST_QUERY_CLIP:
+                return "QUERY_CLIP";
+            case RILConstants.RIL_REQUEST_LAST_DATA_CALL_FAIL_CAUSE:
+                return "LAST_DATA_CALL_FAIL_CAUSE";
+            case RILConstants.RIL_REQUEST_DATA_CALL_LIST:
+                return "DATA_CALL_LIST";
+            case RILConstants.RIL_REQUEST_RESET_RADIO:
+                return "RESET_RADIO";
+            case RILConstants.RIL_REQUEST_OEM_HOOK_RAW:
+                return "OEM_HOOK_RAW";
+            case RILConstants.RIL_REQUEST_OEM_HOOK_STRINGS:
+                return "OEM_HOOK_STRINGS";
+            case RILConstants.RIL_REQUEST_SCREEN_STATE:
+                return "SCREEN_STATE";
+            case RILConstants.RIL_REQUEST_SET_SUPP_SVC_NOTIFICATION:
+                return "SET_SUPP_SVC_NOTIFICATION";
+            case RILConstants.RIL_REQUEST_WRITE_SMS_TO_SIM:
+                return "WRITE_SMS_TO_SIM";
+            case RILConstants.RIL_REQUEST_DELETE_SMS_ON_SIM:
+                return "DELETE_SMS_ON_SIM";
+            case RILConstants.RIL_REQUEST_SET_BAND_MODE:
+                return "SET_BAND_MODE";
+            case RILConstants.RIL_REQUEST_QUERY_AVAILABLE_BAND_MODE:
+                return "QUERY_AVAILABLE_BAND_MODE";
+            case RILConstants.RIL_REQUEST_STK_GET_PROFILE:
+                return "STK_GET_PROFILE";
+            case RILConstants.RIL_REQUEST_STK_SET_PROFILE:
+                return "STK_SET_PROFILE";
+            case RILConstants.RIL_REQUEST_STK_SEND_ENVELOPE_COMMAND:
+                return "STK_SEND_ENVELOPE_COMMAND";
+            case RILConstants.RIL_REQUEST_STK_SEND_TERMINAL_RESPONSE:
+                return "STK_SEND_TERMINAL_RESPONSE";
+            case RILConstants.RIL_REQUEST_STK_HANDLE_CALL_SETUP_REQUESTED_FROM_SIM:
+                return "STK_HANDLE_CALL_SETUP_REQUESTED_FROM_SIM";
+            case RILConstants.RIL_REQUEST_EXPLICIT_CALL_TRANSFER:
+                return "EXPLICIT_CALL_TRANSFER";
+            case RILConstants.RIL_REQUEST_SET_PREFERRED_NETWORK_TYPE:
+                return "SET_PREFERRED_NETWORK_TYPE";
+            case RILConstants.RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE:
+                return "GET_PREFERRED_NETWORK_TYPE";
+            case RILConstants.RIL_REQUEST_GET_NEIGHBORING_CELL_IDS:
+                return "GET_NEIGHBORING_CELL_IDS";
+            case RILConstants.RIL_REQUEST_SET_LOCATION_UPDATES:
+                return "SET_LOCATION_UPDATES";
+            case RILConstants.RIL_REQUEST_CDMA_SET_SUBSCRIPTION_SOURCE:
+                return "CDMA_SET_SUBSCRIPTION_SOURCE";
+            case RILConstants.RIL_REQUEST_CDMA_SET_ROAMING_PREFERENCE:
+                return "CDMA_SET_ROAMING_PREFERENCE";
+            case RILConstants.RIL_REQUEST_CDMA_QUERY_ROAMING_PREFERENCE:
+                return "CDMA_QUERY_ROAMING_PREFERENCE";
+            case RILConstants.RIL_REQUEST_SET_TTY_MODE:
+                return "SET_TTY_MODE";
+            case RILConstants.RIL_REQUEST_QUERY_TTY_MODE:
+                return "QUERY_TTY_MODE";
+            case RILConstants.RIL_REQUEST_CDMA_SET_PREFERRED_VOICE_PRIVACY_MODE:
+                return "CDMA_SET_PREFERRED_VOICE_PRIVACY_MODE";
+            case RILConstants.RIL_REQUEST_CDMA_QUERY_PREFERRED_VOICE_PRIVACY_MODE:
+                return "CDMA_QUERY_PREFERRED_VOICE_PRIVACY_MODE";
+            case RILConstants.RIL_REQUEST_CDMA_FLASH:
+                return "CDMA_FLASH";
+            case RILConstants.RIL_REQUEST_CDMA_BURST_DTMF:
+                return "CDMA_BURST_DTMF";
+            case RILConstants.RIL_REQUEST_CDMA_VALIDATE_AND_WRITE_AKEY:
+                return "CDMA_VALIDATE_AND_WRITE_AKEY";
+            case RILConstants.RIL_REQUEST_CDMA_SEND_SMS:
+                return "CDMA_SEND_SMS";
+            case RILConstants.RIL_REQUEST_CDMA_SMS_ACKNOWLEDGE:
+                return "CDMA_SMS_ACKNOWLEDGE";
+            case RILConstants.RIL_REQUEST_GSM_GET_BROADCAST_CONFIG:
+                return "GSM_GET_BROADCAST_CONFIG";
+            case RILConstants.RIL_REQUEST_GSM_SET_BROADCAST_CONFIG:
+                return "GSM_SET_BROADCAST_CONFIG";
+            case RILConstants.RIL_REQUEST_GSM_BROADCAST_ACTIVATION:
+                return "GSM_BROADCAST_ACTIVATION";
+            case RILConstants.RIL_REQUEST_CDMA_GET_BROADCAST_CONFIG:
+                return "CDMA_GET_BROADCAST_CONFIG";
+            case RILConstants.RIL_REQUEST_CDMA_SET_BROADCAST_CONFIG:
+                return "CDMA_SET_BROADCAST_CONFIG";
+            case RILConstants.RIL_REQUEST_CDMA_BROADCAST_ACTIVATION:
+                return "CDMA_BROADCAST_ACTIVATION";
+            case RILConstants.RIL_REQUEST_CDMA_SUBSCRIPTION:
+                return "CDMA_SUBSCRIPTION";
+            case RILConstants.RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM:
+                return "CDMA_WRITE_SMS_TO_RUIM";
+            case RILConstants.RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM:
+                return "CDMA_DELETE_SMS_ON_RUIM";
+            case RILConstants.RIL_REQUEST_DEVICE_IDENTITY:
+                return "DEVICE_IDENTITY";
+            case RILConstants.RIL_REQUEST_EXIT_EMERGENCY_CALLBACK_MODE:
+                return "EXIT_EMERGENCY_CALLBACK_MODE";
+            case RILConstants.RIL_REQUEST_GET_SMSC_ADDRESS:
+                return "GET_SMSC_ADDRESS";
+            case RILConstants.RIL_REQUEST_SET_SMSC_ADDRESS:
+                return "SET_SMSC_ADDRESS";
+            case RILConstants.RIL_REQUEST_REPORT_SMS_MEMORY_STATUS:
+                return "REPORT_SMS_MEMORY_STATUS";
+            case RILConstants.RIL_REQUEST_REPORT_STK_SERVICE_IS_RUNNING:
+                return "REPORT_STK_SERVICE_IS_RUNNING";
+            case RILConstants.RIL_REQUEST_CDMA_GET_SUBSCRIPTION_SOURCE:
+                return "CDMA_GET_SUBSCRIPTION_SOURCE";
+            case RILConstants.RIL_REQUEST_ISIM_AUTHENTICATION:
+                return "ISIM_AUTHENTICATION";
+            case RILConstants.RIL_REQUEST_ACKNOWLEDGE_INCOMING_GSM_SMS_WITH_PDU:
+                return "ACKNOWLEDGE_INCOMING_GSM_SMS_WITH_PDU";
+            case RILConstants.RIL_REQUEST_STK_SEND_ENVELOPE_WITH_STATUS:
+                return "STK_SEND_ENVELOPE_WITH_STATUS";
+            case RILConstants.RIL_REQUEST_VOICE_RADIO_TECH:
+                return "VOICE_RADIO_TECH";
+            case RILConstants.RIL_REQUEST_GET_CELL_INFO_LIST:
+                return "GET_CELL_INFO_LIST";
+            case RILConstants.RIL_REQUEST_SET_UNSOL_CELL_INFO_LIST_RATE:
+                return "SET_UNSOL_CELL_INFO_LIST_RATE";
+            case RILConstants.RIL_REQUEST_SET_INITIAL_ATTACH_APN:
+                return "SET_INITIAL_ATTACH_APN";
+            case RILConstants.RIL_REQUEST_IMS_REGISTRATION_STATE:
+                return "IMS_REGISTRATION_STATE";
+            case RILConstants.RIL_REQUEST_IMS_SEND_SMS:
+                return "IMS_SEND_SMS";
+            case RILConstants.RIL_REQUEST_SIM_TRANSMIT_APDU_BASIC:
+                return "SIM_TRANSMIT_APDU_BASIC";
+            case RILConstants.RIL_REQUEST_SIM_OPEN_CHANNEL:
+                return "SIM_OPEN_CHANNEL";
+            case RILConstants.RIL_REQUEST_SIM_CLOSE_CHANNEL:
+                return "SIM_CLOSE_CHANNEL";
+            case RILConstants.RIL_REQUEST_SIM_TRANSMIT_APDU_CHANNEL:
+                return "SIM_TRANSMIT_APDU_CHANNEL";
+            case RILConstants.RIL_REQUEST_NV_READ_ITEM:
+                return "NV_READ_ITEM";
+            case RILConstants.RIL_REQUEST_NV_WRITE_ITEM:
+                return "NV_WRITE_ITEM";
+            case RILConstants.RIL_REQUEST_NV_WRITE_CDMA_PRL:
+                return "NV_WRITE_CDMA_PRL";
+            case RILConstants.RIL_REQUEST_NV_RESET_CONFIG:
+                return "NV_RESET_CONFIG";
+            case RILConstants.RIL_REQUEST_SET_UICC_SUBSCRIPTION:
+                return "SET_UICC_SUBSCRIPTION";
+            case RILConstants.RIL_REQUEST_ALLOW_DATA:
+                return "ALLOW_DATA";
+            case RILConstants.RIL_REQUEST_GET_HARDWARE_CONFIG:
+                return "GET_HARDWARE_CONFIG";
+            case RILConstants.RIL_REQUEST_SIM_AUTHENTICATION:
+                return "SIM_AUTHENTICATION";
+            case RILConstants.RIL_REQUEST_GET_DC_RT_INFO:
+                return "GET_DC_RT_INFO";
+            case RILConstants.RIL_REQUEST_SET_DC_RT_INFO_RATE:
+                return "SET_DC_RT_INFO_RATE";
+            case RILConstants.RIL_REQUEST_SET_DATA_PROFILE:
+                return "SET_DATA_PROFILE";
+            case RILConstants.RIL_REQUEST_SHUTDOWN:
+                return "SHUTDOWN";
+            case RILConstants.RIL_REQUEST_GET_RADIO_CAPABILITY:
+                return "GET_RADIO_CAPABILITY";
+            case RILConstants.RIL_REQUEST_SET_RADIO_CAPABILITY:
+                return "SET_RADIO_CAPABILITY";
+            case RILConstants.RIL_REQUEST_START_LCE:
+                return "START_LCE";
+            case RILConstants.RIL_REQUEST_STOP_LCE:
+                return "STOP_LCE";
+            case RILConstants.RIL_REQUEST_PULL_LCEDATA:
+                return "PULL_LCEDATA";
+            case RILConstants.RIL_REQUEST_GET_ACTIVITY_INFO:
+                return "GET_ACTIVITY_INFO";
+            case RILConstants.RIL_REQUEST_SET_ALLOWED_CARRIERS:
+                return "SET_ALLOWED_CARRIERS";
+            case RILConstants.RIL_REQUEST_GET_ALLOWED_CARRIERS:
+                return "GET_ALLOWED_CARRIERS";
+            case RILConstants.RIL_REQUEST_SEND_DEVICE_STATE:
+                return "SEND_DEVICE_STATE";
+            case RILConstants.RIL_REQUEST_SET_UNSOLICITED_RESPONSE_FILTER:
+                return "SET_UNSOLICITED_RESPONSE_FILTER";
+            case RILConstants.RIL_REQUEST_SET_SIM_CARD_POWER:
+                return "SET_SIM_CARD_POWER";
+            case RILConstants.RIL_REQUEST_SET_CARRIER_INFO_IMSI_ENCRYPTION:
+                return "SET_CARRIER_INFO_IMSI_ENCRYPTION";
+            case RILConstants.RIL_REQUEST_START_NETWORK_SCAN:
+                return "START_NETWORK_SCAN";
+            case RILConstants.RIL_REQUEST_STOP_NETWORK_SCAN:
+                return "STOP_NETWORK_SCAN";
+            case RILConstants.RIL_REQUEST_START_KEEPALIVE:
+                return "START_KEEPALIVE";
+            case RILConstants.RIL_REQUEST_STOP_KEEPALIVE:
+                return "STOP_KEEPALIVE";
+            case RILConstants.RIL_REQUEST_GET_SLOT_STATUS:
+                return "GET_SLOT_STATUS";
+            case RILConstants.RIL_REQUEST_SET_LOGICAL_TO_PHYSICAL_SLOT_MAPPING:
+                return "SET_LOGICAL_TO_PHYSICAL_SLOT_MAPPING";
+            case RILConstants.RIL_REQUEST_SET_SIGNAL_STRENGTH_REPORTING_CRITERIA:
+                return "SET_SIGNAL_STRENGTH_REPORTING_CRITERIA";
+            case RILConstants.RIL_REQUEST_SET_LINK_CAPACITY_REPORTING_CRITERIA:
+                return "SET_LINK_CAPACITY_REPORTING_CRITERIA";
+            case RILConstants.RIL_REQUEST_SET_PREFERRED_DATA_MODEM:
+                return "SET_PREFERRED_DATA_MODEM";
+            default:
+                return "<unknown request " + id + ">";
+        }
+    }
+
+    /** Returns the RILConstants name of unsolicited response @param id. */
+    public static String unsolToString(int id) {
+        switch (id) {
+            case RILConstants.RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED:
+                return "RESPONSE_RADIO_STATE_CHANGED";
+            case RILConstants.RIL_UNSOL_RESPONSE_CALL_STATE_CHANGED:
+                return "RESPONSE_CALL_STATE_CHANGED";
+            case RILConstants.RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED:
+                return "RESPONSE_NETWORK_STATE_CHANGED";
+            case RILConstants.RIL_UNSOL_RESPONSE_NEW_SMS:
+                return "RESPONSE_NEW_SMS";
+            case RILConstants.RIL_UNSOL_RESPONSE_NEW_SMS_STATUS_REPORT:
+                return "RESPONSE_NEW_SMS_STATUS_REPORT";
+            case RILConstants.RIL_UNSOL_RESPONSE_NEW_SMS_ON_SIM:
+                return "RESPONSE_NEW_SMS_ON_SIM";
+            case RILConstants.RIL_UNSOL_ON_USSD:
+                return "ON_USSD";
+            case RILConstants.RIL_UNSOL_ON_USSD_REQUEST:
+                return "ON_USSD_REQUEST";
+            case RILConstants.RIL_UNSOL_NITZ_TIME_RECEIVED:
+                return "NITZ_TIME_RECEIVED";
+            case RILConstants.RIL_UNSOL_SIGNAL_STRENGTH:
+                return "SIGNAL_STRENGTH";
+            case RILConstants.RIL_UNSOL_DATA_CALL_LIST_CHANGED:
+                return "DATA_CALL_LIST_CHANGED";
+            case RILConstants.RIL_UNSOL_SUPP_SVC_NOTIFICATION:
+                return "SUPP_SVC_NOTIFICATION";
+            case RILConstants.RIL_UNSOL_STK_SESSION_END:
+                return "STK_SESSION_END";
+            case RILConstants.RIL_UNSOL_STK_PROACTIVE_COMMAND:
+                return "STK_PROACTIVE_COMMAND";
+            case RILConstants.RIL_UNSOL_STK_EVENT_NOTIFY:
+                return "STK_EVENT_NOTIFY";
+            case RILConstants.RIL_UNSOL_STK_CALL_SETUP:
+                return "STK_CALL_SETUP";
+            case RILConstants.RIL_UNSOL_SIM_SMS_STORAGE_FULL:
+                return "SIM_SMS_STORAGE_FULL";
+            case RILConstants.RIL_UNSOL_SIM_REFRESH:
+                return "SIM_REFRESH";
+            case RILConstants.RIL_UNSOL_CALL_RING:
+                return "CALL_RING";
+            case RILConstants.RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED:
+                return "RESPONSE_SIM_STATUS_CHANGED";
+            case RILConstants.RIL_UNSOL_RESPONSE_CDMA_NEW_SMS:
+                return "RESPONSE_CDMA_NEW_SMS";
+            case RILConstants.RIL_UNSOL_RESPONSE_NEW_BROADCAST_SMS:
+                return "RESPONSE_NEW_BROADCAST_SMS";
+            case RILConstants.RIL_UNSOL_CDMA_RUIM_SMS_STORAGE_FULL:
+                return "CDMA_RUIM_SMS_STORAGE_FULL";
+            case RILConstants.RIL_UNSOL_RESTRICTED_STATE_CHANGED:
+                return "RESTRICTED_STATE_CHANGED";
+            case RILConstants.RIL_UNSOL_ENTER_EMERGENCY_CALLBACK_MODE:
+                return "ENTER_EMERGENCY_CALLBACK_MODE";
+            case RILConstants.RIL_UNSOL_CDMA_CALL_WAITING:
+                return "CDMA_CALL_WAITING";
+            case RILConstants.RIL_UNSOL_CDMA_OTA_PROVISION_STATUS:
+                return "CDMA_OTA_PROVISION_STATUS";
+            case RILConstants.RIL_UNSOL_CDMA_INFO_REC:
+                return "CDMA_INFO_REC";
+            case RILConstants.RIL_UNSOL_OEM_HOOK_RAW:
+                return "OEM_HOOK_RAW";
+            case RILConstants.RIL_UNSOL_RINGBACK_TONE:
+                return "RINGBACK_TONE";
+            case RILConstants.RIL_UNSOL_RESEND_INCALL_MUTE:
+                return "RESEND_INCALL_MUTE";
+            case RILConstants.RIL_UNSOL_CDMA_SUBSCRIPTION_SOURCE_CHANGED:
+                return "CDMA_SUBSCRIPTION_SOURCE_CHANGED";
+            case RILConstants.RIL_UNSOL_EXIT_EMERGENCY_CALLBACK_MODE:
+                return "EXIT_EMERGENCY_CALLBACK_MODE";
+            case RILConstants.RIL_UNSOL_RIL_CONNECTED:
+                return "RIL_CONNECTED";
+            case RILConstants.RIL_UNSOL_VOICE_RADIO_TECH_CHANGED:
+                return "VOICE_RADIO_TECH_CHANGED";
+            case RILConstants.RIL_UNSOL_CELL_INFO_LIST:
+                return "CELL_INFO_LIST";
+            case RILConstants.RIL_UNSOL_RESPONSE_IMS_NETWORK_STATE_CHANGED:
+                return "RESPONSE_IMS_NETWORK_STATE_CHANGED";
+            case RILConstants.RIL_UNSOL_UICC_SUBSCRIPTION_STATUS_CHANGED:
+                return "UICC_SUBSCRIPTION_STATUS_CHANGED";
+            case RILConstants.RIL_UNSOL_SRVCC_STATE_NOTIFY:
+                return "SRVCC_STATE_NOTIFY";
+            case RILConstants.RIL_UNSOL_HARDWARE_CONFIG_CHANGED:
+                return "HARDWARE_CONFIG_CHANGED";
+            case RILConstants.RIL_UNSOL_DC_RT_INFO_CHANGED:
+                return "DC_RT_INFO_CHANGED";
+            case RILConstants.RIL_UNSOL_RADIO_CAPABILITY:
+                return "RADIO_CAPABILITY";
+            case RILConstants.RIL_UNSOL_ON_SS:
+                return "ON_SS";
+            case RILConstants.RIL_UNSOL_STK_CC_ALPHA_NOTIFY:
+                return "STK_CC_ALPHA_NOTIFY";
+            case RILConstants.RIL_UNSOL_LCEDATA_RECV:
+                return "LCEDATA_RECV";
+            case RILConstants.RIL_UNSOL_PCO_DATA:
+                return "PCO_DATA";
+            case RILConstants.RIL_UNSOL_MODEM_RESTART:
+                return "MODEM_RESTART";
+            case RILConstants.RIL_UNSOL_CARRIER_INFO_IMSI_ENCRYPTION:
+                return "CARRIER_INFO_IMSI_ENCRYPTION";
+            case RILConstants.RIL_UNSOL_NETWORK_SCAN_RESULT:
+                return "NETWORK_SCAN_RESULT";
+            case RILConstants.RIL_UNSOL_KEEPALIVE_STATUS:
+                return "KEEPALIVE_STATUS";
+            case RILConstants.RIL_UNSOL_ICC_SLOT_STATUS:
+                return "ICC_SLOT_STATUS";
+            case RILConstants.RIL_UNSOL_PHYSICAL_CHANNEL_CONFIG:
+                return "PHYSICAL_CHANNEL_CONFIG";
+            default:
+                return "<unknown unsol " + id + ">";
+        }
+    }
+
+    public synchronized void onRequestSent(int serial, int requestId) {
+        int slot = serial & mMask;
+        if (mPending[slot]) {
+            // Never answered and now pushed out of the ring
+            countTimeout(slot);
+        }
+        mSerials[slot] = serial;
+        mRequestIds[slot] = requestId;
+        mSentNanos[slot] = SystemClock.elapsedRealtimeNanos();
+        mPending[slot] = true;
+    }
+
+    /**
+     * Records the response for @param serial.
+     *
+     * @param rilErrno the response error, RILConstants.SUCCESS if none
+     * @return the round trip in microseconds, or -1 if the serial was not
+     *         outstanding
+     */
+    public synchronized long onResponse(int serial, int rilErrno) {
+        int slot = serial & mMask;
+        if (!mPending[slot] || mSerials[slot] != serial) {
+            mUnmatchedResponses++;
+            return -1;
+        }
+        mPending[slot] = false;
+        long micros = (SystemClock.elapsedRealtimeNanos() - mSentNanos[slot]) / 1000;
+        int id = mRequestIds[slot];
+        int index = indexOf(id);
+        Histogram h = mLatencyMicros[index];
+        if (h == null) {
+            h = mLatencyMicros[index] = new Histogram("us");
+        }
+        h.record(micros);
+        if (rilErrno != RILConstants.SUCCESS) {
+            mErrors[index]++;
+            BinaryEventLog events = BinaryEventLog.getDefault();
+            if (events != null) {
+                events.log(BinaryEventLog.EVENT_RIL_ERROR, id, rilErrno);
+            }
+        }
+        return micros;
+    }
+
+    /**
+     * Drops and reports every request outstanding for longer than
+     * @param timeoutMillis.
+     *
+     * @return the number of requests timed out by this call.
+     */
+    public synchronized int collectTimedOut(long timeoutMillis) {
+        long cutoff = SystemClock.elapsedRealtimeNanos() - timeoutMillis * 1000000;
+        int count = 0;
+        for (int slot = 0; slot <= mMask; slot++) {
+            if (mPending[slot] && mSentNanos[slot] < cutoff) {
+                Log.w(TAG, "No response to " + requestToString(mRequestIds[slot])
+                        + " serial " + mSerials[slot]);
+                countTimeout(slot);
+                mPending[slot] = false;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the latency histogram of @param requestId, or null if unseen.
+     * IDs outside the known range all return the shared "other" histogram.
+     */
+    public synchronized Histogram getLatencyMicros(int requestId) {
+        return mLatencyMicros[indexOf(requestId)];
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        pw.println("RilRequestTracker: unmatchedResponses=" + mUnmatchedResponses);
+        for (int id = 0; id <= OTHER; id++) {
+            Histogram h = mLatencyMicros[id];
+            if (h == null && mTimeouts[id] == 0) {
+                continue;
+            }
+            pw.println("  " + (id == OTHER ? "other" : requestToString(id))
+                    + ": errors=" + mErrors[id] + " timeouts=" + mTimeouts[id]);
+            if (h != null) {
+                h.dump(pw, "    ");
+            }
+        }
+        pw.println("  outstanding:");
+        for (int slot = 0; slot <= mMask; slot++) {
+            if (mPending[slot]) {
+                pw.println("    " + requestToString(mRequestIds[slot]) + " serial "
+                        + mSerials[slot] + " age=" + (now - mSentNanos[slot]) / 1000000 + "ms");
+            }
+        }
+    }
+
+    private void countTimeout(int slot) {
+        mTimeouts[indexOf(mRequestIds[slot])]++;
+    }
+
+    private static int indexOf(int requestId) {
+        return requestId >= 0 && requestId < OTHER ? requestId : OTHER;
+    }
+}
@@ -28,9 +28,12 @@ import android.util.Log;
 
 import com.android.internal.util.TrafficStatsConstants;
 
+import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -38,6 +41,9 @@ import java.util.Arrays;
  *
  * Simple SNTP client class for retrieving network time.
  *
+ * Each instance reuses one {@link NtpPacketCodec} and its packet buffers
+ * across requests, so it must not be used from several threads at once.
+ *
  * Sample usage:
  * <pre>SntpClient client = new SntpClient();
  * if (client.requestTime("time.foo.com")) {
@@ -49,25 +55,28 @@ public class SntpClient {
     private static final String TAG = "SntpClient";
     private static final boolean DBG = true;
 
-    private static final int REFERENCE_TIME_OFFSET = 16;
-    private static final int ORIGINATE_TIME_OFFSET = 24;
-    private static final int RECEIVE_TIME_OFFSET = 32;
-    private static final int TRANSMIT_TIME_OFFSET = 40;
-    private static final int NTP_PACKET_SIZE = 48;
-
-    private static final int NTP_PORT = 123;
-    private static final int NTP_MODE_CLIENT = 3;
-    private static final int NTP_MODE_SERVER = 4;
-    private static final int NTP_MODE_BROADCAST = 5;
-    private static final int NTP_VERSION = 3;
-
-    private static final int NTP_LEAP_NOSYNC = 3;
-    private static final int NTP_STRATUM_DEATH = 0;
-    private static final int NTP_STRATUM_MAX = 15;
+    /*package*/ static final int ROOT_DELAY_OFFSET = 4;
+    /*package*/ static final int ROOT_DISPERSION_OFFSET = 8;
+    /*package*/ static final int REFERENCE_ID_OFFSET = 12;
+    /*package*/ static final int REFERENCE_TIME_OFFSET = 16;
+    /*package*/ static final int ORIGINATE_TIME_OFFSET = 24;
+    /*package*/ static final int RECEIVE_TIME_OFFSET = 32;
+    /*package*/ static final int TRANSMIT_TIME_OFFSET = 40;
+    /*package*/ static final int NTP_PACKET_SIZE = 48;
+
+    /*package*/ static final int NTP_PORT = 123;
+    /*package*/ static final int NTP_MODE_CLIENT = 3;
+    /*package*/ static final int NTP_MODE_SERVER = 4;
+    /*package*/ static final int NTP_MODE_BROADCAST = 5;
+    /*package*/ static final int NTP_VERSION = 3;
+
+    /*package*/ static final int NTP_LEAP_NOSYNC = 3;
+    /*package*/ static final int NTP_STRATUM_DEATH = 0;
+    /*package*/ static final int NTP_STRATUM_MAX = 15;
 
     // Number of seconds between Jan 1, 1900 and Jan 1, 1970
     // 70 years plus 17 leap days
-    private static final long OFFSET_1900_TO_1970 = ((365L * 70L) + 17L) * 24L * 60L * 60L;
+    /*package*/ static final long OFFSET_1900_TO_1970 = ((365L * 70L) + 17L) * 24L * 60L * 60L;
 
     // system time computed from NTP server response
     private long mNtpTime;
@@ -78,7 +87,55 @@ public class SntpClient {
     // round trip time in milliseconds
     private long mRoundTripTime;
 
-    private static class InvalidServerReplyException extends Exception {
+    // estimated maximum error of mNtpTime in milliseconds
+    private double mDispersion;
+
+    // RMS offset difference between burst samples in milliseconds
+    private double mJitter;
+
+    // RFC 5905 frequency tolerance (15 PPM), used to grow dispersion with round trip and age
+    private static final double PHI = 15e-6;
+
+    // resolution of the local clock in milliseconds
+    private static final double LOCAL_PRECISION_MS = 1.0;
+
+    // Round trips more than this factor above the fastest reply (plus slack) are not
+    // considered when selecting among several servers
+    private static final int MAX_ROUND_TRIP_FACTOR = 2;
+    private static final long ROUND_TRIP_SLACK_MS = 10;
+
+    private static final long NANOS_PER_MS = 1000000L;
+
+    // Bounds of a burst: the RFC 5905 clock filter keeps 8 samples, and public servers
+    // rate-limit (KoD RATE) clients that poll more often than every couple of seconds
+    /*package*/ static final int MAX_BURST_COUNT = 8;
+    private static final int DEFAULT_BURST_INTERVAL_MS = 2000;
+
+    // minimum time between the requests of a burst
+    private int mBurstIntervalMs = DEFAULT_BURST_INTERVAL_MS;
+
+    // Request encoding and reply decoding, reused for every exchange
+    private final NtpPacketCodec mCodec = new NtpPacketCodec();
+    private final byte[] mBuffer = mCodec.buffer().array();
+    private final DatagramPacket mPacket = new DatagramPacket(mBuffer, NTP_PACKET_SIZE);
+
+    // Per-request state of the last multi-server query or burst, grown as needed
+    private long[] mTransmitTimes = new long[0];
+    private long[] mRequestNanos = new long[0];
+    private boolean[] mDone = new boolean[0];
+    private Sample[] mSamples = new Sample[0];
+
+    /** Result of one valid request/response exchange. */
+    /*package*/ static final class Sample {
+        long ntpTime;
+        long ntpTimeReference;
+        long roundTripTime;
+        long clockOffset;
+        int stratum;
+        double dispersion;
+    }
+
+    /*package*/ static class InvalidServerReplyException extends Exception {
         public InvalidServerReplyException(String message) {
             super(message);
         }
@@ -112,59 +169,277 @@ public class SntpClient {
             socket = new DatagramSocket();
             network.bindSocket(socket);
             socket.setSoTimeout(timeout);
-            byte[] buffer = new byte[NTP_PACKET_SIZE];
-            DatagramPacket request = new DatagramPacket(buffer, buffer.length, address, port);
-
-            // set mode = 3 (client) and version = 3
-            // mode is in low 3 bits of first byte
-            // version is in bits 3-5 of first byte
-            buffer[0] = NTP_MODE_CLIENT | (NTP_VERSION << 3);
+            ensureCapacity(1);
 
             // get current time and write it to the request packet
-            final long requestTime = System.currentTimeMillis();
-            final long requestTicks = SystemClock.elapsedRealtime();
-            writeTimeStamp(buffer, TRANSMIT_TIME_OFFSET, requestTime);
-
-            socket.send(request);
+            final long transmitTime = mCodec.encodeRequest(System.currentTimeMillis());
+            final long requestNanos = SystemClock.elapsedRealtimeNanos();
+            mPacket.setData(mBuffer);
+            mPacket.setAddress(address);
+            mPacket.setPort(port);
+            socket.send(mPacket);
 
             // read the response
-            DatagramPacket response = new DatagramPacket(buffer, buffer.length);
-            socket.receive(response);
-            final long responseTicks = SystemClock.elapsedRealtime();
-            final long responseTime = requestTime + (responseTicks - requestTicks);
-
-            // extract the results
-            final byte leap = (byte) ((buffer[0] >> 6) & 0x3);
-            final byte mode = (byte) (buffer[0] & 0x7);
-            final int stratum = (int) (buffer[1] & 0xff);
-            final long originateTime = readTimeStamp(buffer, ORIGINATE_TIME_OFFSET);
-            final long receiveTime = readTimeStamp(buffer, RECEIVE_TIME_OFFSET);
-            final long transmitTime = readTimeStamp(buffer, TRANSMIT_TIME_OFFSET);
-
-            /* do sanity check according to RFC */
-            // TODO: validate originateTime == requestTime.
-            checkValidServerReply(leap, mode, stratum, transmitTime);
-
-            long roundTripTime = responseTicks - requestTicks - (transmitTime - receiveTime);
-            // receiveTime = originateTime + transit + skew
-            // responseTime = transmitTime + transit - skew
-            // clockOffset = ((receiveTime - originateTime) + (transmitTime - responseTime))/2
-            //             = ((originateTime + transit + skew - originateTime) +
-            //                (transmitTime - (transmitTime + transit - skew)))/2
-            //             = ((transit + skew) + (transmitTime - transmitTime - transit + skew))/2
-            //             = (transit + skew - transit + skew)/2
-            //             = (2 * skew)/2 = skew
-            long clockOffset = ((receiveTime - originateTime) + (transmitTime - responseTime))/2;
-            if (DBG) {
-                Log.d(TAG, "round trip: " + roundTripTime + "ms, " +
-                        "clock offset: " + clockOffset + "ms");
+            socket.receive(mPacket);
+            final long responseNanos = SystemClock.elapsedRealtimeNanos();
+            if (!decode(mPacket)) {
+                throw new InvalidServerReplyException("short reply: " + mPacket.getLength());
             }
+            final Sample sample =
+                    parseResponse(mCodec, mSamples[0], transmitTime, requestNanos, responseNanos);
 
             // save our results - use the times on this side of the network latency
             // (response rather than request time)
-            mNtpTime = responseTime + clockOffset;
-            mNtpTimeReference = responseTicks;
-            mRoundTripTime = roundTripTime;
+            saveResult(sample, sample.dispersion, 0);
+        } catch (Exception e) {
+            if (DBG) Log.d(TAG, "request time failed: " + e);
+            return false;
+        } finally {
+            if (socket != null) {
+                socket.close();
+            }
+            TrafficStats.setThreadStatsTag(oldTag);
+        }
+
+        return true;
+    }
+
+    /**
+     * Sends an SNTP request to each of the given hosts at once and keeps the best
+     * reply. Hosts that cannot be resolved are skipped.
+     *
+     * @param hosts host names of the servers.
+     * @param timeout network timeout in milliseconds, shared by all servers.
+     * @param minResponses number of valid replies after which to stop waiting.
+     * @param network network over which to send the requests.
+     * @return true if at least one server gave a valid reply.
+     * @throws IllegalArgumentException if @param minResponses is less than 1.
+     */
+    public boolean requestTime(String[] hosts, int timeout, int minResponses, Network network) {
+        if (minResponses < 1) {
+            throw new IllegalArgumentException("minResponses must be positive: " + minResponses);
+        }
+        final Network networkForResolv = network.getPrivateDnsBypassingCopy();
+        InetAddress[] addresses = new InetAddress[hosts.length];
+        int count = 0;
+        for (String host : hosts) {
+            try {
+                addresses[count] = networkForResolv.getByName(host);
+                count++;
+            } catch (Exception e) {
+                if (DBG) Log.d(TAG, "resolving " + host + " failed: " + e);
+            }
+        }
+        return requestTime(Arrays.copyOf(addresses, count), NTP_PORT, timeout, minResponses,
+                networkForResolv);
+    }
+
+    /**
+     * Sends an SNTP request to each of the given servers from one socket and
+     * returns as soon as @param minResponses valid replies have arrived or the
+     * timeout expires, so the result is limited by the fastest healthy servers
+     * rather than by the order in which they are tried.
+     *
+     * Replies whose round trip is well above the fastest one are discarded; of
+     * the rest, the one with the lowest stratum wins, ties going to the shorter
+     * round trip.
+     *
+     * @return true if at least one server gave a valid reply.
+     * @throws IllegalArgumentException if @param minResponses is less than 1.
+     */
+    public boolean requestTime(InetAddress[] addresses, int port, int timeout, int minResponses,
+            Network network) {
+        final int count = addresses.length;
+        if (minResponses < 1) {
+            throw new IllegalArgumentException("minResponses must be positive: " + minResponses);
+        }
+        if (count == 0) {
+            return false;
+        }
+        DatagramSocket socket = null;
+        ensureCapacity(count);
+        final Sample[] samples = mSamples;
+        int valid = 0;
+        final int oldTag =
+                TrafficStats.getAndSetThreadStatsTag(TrafficStatsConstants.TAG_SYSTEM_NTP);
+        try {
+            socket = new DatagramSocket();
+            network.bindSocket(socket);
+            // transmit time stamps as sent, to match replies against their requests
+            final long[] transmitTimes = mTransmitTimes;
+            final long[] requestNanos = mRequestNanos;
+            final boolean[] done = mDone;
+            final DatagramPacket packet = mPacket;
+            int pending = 0;
+
+            for (int i = 0; i < count; i++) {
+                transmitTimes[i] = mCodec.encodeRequest(System.currentTimeMillis());
+                requestNanos[i] = SystemClock.elapsedRealtimeNanos();
+                done[i] = false;
+                packet.setData(mBuffer);
+                packet.setAddress(addresses[i]);
+                packet.setPort(port);
+                try {
+                    socket.send(packet);
+                    pending++;
+                } catch (IOException e) {
+                    if (DBG) Log.d(TAG, "request to " + addresses[i] + " failed: " + e);
+                    done[i] = true;
+                }
+            }
+
+            final long deadline = SystemClock.elapsedRealtime() + timeout;
+            while (pending > 0 && valid < minResponses) {
+                final long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0) {
+                    break;
+                }
+                socket.setSoTimeout((int) remaining);
+                packet.setData(mBuffer);
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+                final long responseNanos = SystemClock.elapsedRealtimeNanos();
+                if (packet.getPort() != port || !decode(packet)) {
+                    continue;
+                }
+                final int i = findRequest(addresses, count, packet.getAddress());
+                if (i < 0) {
+                    continue;
+                }
+                done[i] = true;
+                pending--;
+                try {
+                    parseResponse(mCodec, samples[valid], transmitTimes[i], requestNanos[i],
+                            responseNanos);
+                    valid++;
+                } catch (InvalidServerReplyException e) {
+                    if (DBG) Log.d(TAG, "reply from " + addresses[i] + " rejected: " + e);
+                }
+            }
+        } catch (Exception e) {
+            if (DBG) Log.d(TAG, "request time failed: " + e);
+            return false;
+        } finally {
+            if (socket != null) {
+                socket.close();
+            }
+            TrafficStats.setThreadStatsTag(oldTag);
+        }
+
+        final Sample best = selectBest(samples, valid);
+        if (best == null) {
+            if (DBG) Log.d(TAG, "request time failed: no valid reply from " + count + " servers");
+            return false;
+        }
+        if (DBG) {
+            Log.d(TAG, "selected stratum " + best.stratum + " reply of " + valid +
+                    ", round trip: " + best.roundTripTime + "ms");
+        }
+        saveResult(best, best.dispersion, 0);
+        return true;
+    }
+
+    /**
+     * Sends a burst of SNTP requests to the given host and filters the results.
+     *
+     * @param host host name of the server.
+     * @param timeout network timeout in milliseconds, per request.
+     * @param count number of requests in the burst, at most 8.
+     * @param network network over which to send the requests.
+     * @return true if at least one request of the burst was successful.
+     * @throws IllegalArgumentException if @param count is out of range.
+     */
+    public boolean requestTimeBurst(String host, int timeout, int count, Network network) {
+        final Network networkForResolv = network.getPrivateDnsBypassingCopy();
+        InetAddress address = null;
+        try {
+            address = networkForResolv.getByName(host);
+        } catch (Exception e) {
+            if (DBG) Log.d(TAG, "request time failed: " + e);
+            return false;
+        }
+        return requestTimeBurst(address, NTP_PORT, timeout, count, networkForResolv);
+    }
+
+    /**
+     * Sends @param count SNTP requests from one socket, spaced by the burst
+     * interval (see {@link #setBurstInterval}), and runs an RFC 5905 clock
+     * filter over the valid replies: the result is taken from the sample with
+     * the smallest round trip, since it carries the least queuing delay, and the
+     * spread of the other samples gives the jitter reported by {@link #getJitter}.
+     * A lost or invalid reply costs one sample instead of failing the whole
+     * request.
+     *
+     * @return true if at least one request of the burst was successful.
+     * @throws IllegalArgumentException if @param count is not between 1 and 8.
+     */
+    public boolean requestTimeBurst(InetAddress address, int port, int timeout, int count,
+            Network network) {
+        if (count < 1 || count > MAX_BURST_COUNT) {
+            throw new IllegalArgumentException("count must be between 1 and "
+                    + MAX_BURST_COUNT + ": " + count);
+        }
+        DatagramSocket socket = null;
+        ensureCapacity(count);
+        final Sample[] samples = mSamples;
+        int valid = 0;
+        final int oldTag =
+                TrafficStats.getAndSetThreadStatsTag(TrafficStatsConstants.TAG_SYSTEM_NTP);
+        try {
+            socket = new DatagramSocket();
+            network.bindSocket(socket);
+            final DatagramPacket packet = mPacket;
+            long lastRequestMs = 0;
+
+            for (int n = 0; n < count; n++) {
+                if (n > 0) {
+                    final long wait =
+                            lastRequestMs + mBurstIntervalMs - SystemClock.elapsedRealtime();
+                    if (wait > 0) {
+                        SystemClock.sleep(wait);
+                    }
+                }
+                final long transmitTime = mCodec.encodeRequest(System.currentTimeMillis());
+                final long requestNanos = SystemClock.elapsedRealtimeNanos();
+                packet.setData(mBuffer);
+                packet.setAddress(address);
+                packet.setPort(port);
+                socket.send(packet);
+
+                // Late replies to earlier requests of the burst are skipped by
+                // matching the originate time stamp against this request
+                lastRequestMs = requestNanos / NANOS_PER_MS;
+                final long deadline = lastRequestMs + timeout;
+                while (true) {
+                    final long remaining = deadline - SystemClock.elapsedRealtime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    socket.setSoTimeout((int) remaining);
+                    packet.setData(mBuffer);
+                    try {
+                        socket.receive(packet);
+                    } catch (SocketTimeoutException e) {
+                        if (DBG) Log.d(TAG, "burst request " + n + " timed out");
+                        break;
+                    }
+                    final long responseNanos = SystemClock.elapsedRealtimeNanos();
+                    if (!decode(packet) || mCodec.getOriginateTime() != transmitTime) {
+                        continue;
+                    }
+                    try {
+                        parseResponse(mCodec, samples[valid], transmitTime, requestNanos,
+                                responseNanos);
+                        valid++;
+                    } catch (InvalidServerReplyException e) {
+                        if (DBG) Log.d(TAG, "burst reply " + n + " rejected: " + e);
+                    }
+                    break;
+                }
+            }
         } catch (Exception e) {
             if (DBG) Log.d(TAG, "request time failed: " + e);
             return false;
@@ -175,9 +450,28 @@ public class SntpClient {
             TrafficStats.setThreadStatsTag(oldTag);
         }
 
+        if (valid == 0) {
+            if (DBG) Log.d(TAG, "request time failed: no valid reply in burst of " + count);
+            return false;
+        }
+        clockFilter(samples, valid);
         return true;
     }
 
+    /**
+     * Sets the minimum time between the requests of a burst. Defaults to 2
+     * seconds, which public NTP pools accept without rate limiting.
+     *
+     * @param intervalMs interval in milliseconds.
+     * @throws IllegalArgumentException if @param intervalMs is negative.
+     */
+    public void setBurstInterval(int intervalMs) {
+        if (intervalMs < 0) {
+            throw new IllegalArgumentException("intervalMs must not be negative: " + intervalMs);
+        }
+        mBurstIntervalMs = intervalMs;
+    }
+
     @Deprecated
     public boolean requestTime(String host, int timeout) {
         Log.w(TAG, "Shame on you for calling the hidden API requestTime()!");
@@ -215,82 +509,165 @@ public class SntpClient {
         return mRoundTripTime;
     }
 
-    private static void checkValidServerReply(
-            byte leap, byte mode, int stratum, long transmitTime)
+    /**
+     * Returns the dispersion of the last NTP transaction, an estimate of the
+     * maximum error of {@link #getNtpTime} at the time it was taken.
+     *
+     * @return dispersion in milliseconds.
+     */
+    public double getDispersion() {
+        return mDispersion;
+    }
+
+    /**
+     * Returns the jitter of the last burst, the RMS difference between the
+     * selected clock offset and those of the other samples. Zero unless the time
+     * came from {@link #requestTimeBurst}.
+     *
+     * @return jitter in milliseconds.
+     */
+    public double getJitter() {
+        return mJitter;
+    }
+
+    /**
+     * Validates the reply decoded by @param codec against the request sent with
+     * transmit time stamp @param transmitTime at @param requestNanos, and fills
+     * @param sample with the clock offset and round trip of the exchange.
+     *
+     * @return @param sample
+     */
+    /*package*/ static Sample parseResponse(NtpPacketCodec codec, Sample sample,
+            long transmitTime, long requestNanos, long responseNanos)
             throws InvalidServerReplyException {
-        if (leap == NTP_LEAP_NOSYNC) {
-            throw new InvalidServerReplyException("unsynchronized server");
+        /* do sanity check according to RFC */
+        final String error = codec.checkReply(transmitTime);
+        if (error != null) {
+            throw new InvalidServerReplyException(error);
         }
-        if ((mode != NTP_MODE_SERVER) && (mode != NTP_MODE_BROADCAST)) {
-            throw new InvalidServerReplyException("untrusted mode: " + mode);
-        }
-        if ((stratum == NTP_STRATUM_DEATH) || (stratum > NTP_STRATUM_MAX)) {
-            throw new InvalidServerReplyException("untrusted stratum: " + stratum);
-        }
-        if (transmitTime == 0) {
-            throw new InvalidServerReplyException("zero transmitTime");
+
+        // T4 on the local time scale of T1: the transmit time stamp plus the elapsed time
+        final long responseTime =
+                transmitTime + NtpPacketCodec.nanosToNtp(responseNanos - requestNanos);
+        final long roundTripTime =
+                NtpPacketCodec.ntpToNanos(codec.getRoundTripTime(responseTime)) / NANOS_PER_MS;
+        final long clockOffset =
+                NtpPacketCodec.ntpToNanos(codec.getClockOffset(responseTime)) / NANOS_PER_MS;
+        if (DBG) {
+            Log.d(TAG, "round trip: " + roundTripTime + "ms, " +
+                    "clock offset: " + clockOffset + "ms");
         }
+
+        sample.ntpTime = NtpPacketCodec.ntpToMillis(responseTime) + clockOffset;
+        sample.ntpTimeReference = responseNanos / NANOS_PER_MS;
+        sample.roundTripTime = roundTripTime;
+        sample.clockOffset = clockOffset;
+        sample.stratum = codec.getStratum();
+        // RFC 5905 sample dispersion: both clock precisions plus drift over the round trip
+        sample.dispersion = Math.scalb(1000.0, codec.getPrecision()) + LOCAL_PRECISION_MS
+                + PHI * (responseNanos - requestNanos) / NANOS_PER_MS;
+        return sample;
     }
 
     /**
-     * Reads an unsigned 32 bit big endian number from the given offset in the buffer.
+     * Prepares the codec buffer for the reply just received into @param packet
+     * and decodes it.
+     *
+     * @return false if the reply is too short.
      */
-    private long read32(byte[] buffer, int offset) {
-        byte b0 = buffer[offset];
-        byte b1 = buffer[offset+1];
-        byte b2 = buffer[offset+2];
-        byte b3 = buffer[offset+3];
-
-        // convert signed bytes to unsigned values
-        int i0 = ((b0 & 0x80) == 0x80 ? (b0 & 0x7F) + 0x80 : b0);
-        int i1 = ((b1 & 0x80) == 0x80 ? (b1 & 0x7F) + 0x80 : b1);
-        int i2 = ((b2 & 0x80) == 0x80 ? (b2 & 0x7F) + 0x80 : b2);
-        int i3 = ((b3 & 0x80) == 0x80 ? (b3 & 0x7F) + 0x80 : b3);
-
-        return ((long)i0 << 24) + ((long)i1 << 16) + ((long)i2 << 8) + (long)i3;
+    private boolean decode(DatagramPacket packet) {
+        final ByteBuffer buffer = mCodec.buffer();
+        buffer.clear();
+        buffer.position(packet.getLength());
+        return mCodec.decode();
     }
 
     /**
-     * Reads the NTP time stamp at the given offset in the buffer and returns
-     * it as a system time (milliseconds since January 1, 1970).
+     * Returns the index of the outstanding request to @param from whose transmit
+     * time stamp the decoded reply echoes, or -1.
      */
-    private long readTimeStamp(byte[] buffer, int offset) {
-        long seconds = read32(buffer, offset);
-        long fraction = read32(buffer, offset + 4);
-        // Special case: zero means zero.
-        if (seconds == 0 && fraction == 0) {
-            return 0;
+    private int findRequest(InetAddress[] addresses, int count, InetAddress from) {
+        final long originateTime = mCodec.getOriginateTime();
+        for (int i = 0; i < count; i++) {
+            if (!mDone[i] && mTransmitTimes[i] == originateTime && addresses[i].equals(from)) {
+                return i;
+            }
         }
-        return ((seconds - OFFSET_1900_TO_1970) * 1000) + ((fraction * 1000L) / 0x100000000L);
+        return -1;
+    }
+
+    private void ensureCapacity(int count) {
+        if (mSamples.length >= count) {
+            return;
+        }
+        mTransmitTimes = new long[count];
+        mRequestNanos = new long[count];
+        mDone = new boolean[count];
+        final int old = mSamples.length;
+        mSamples = Arrays.copyOf(mSamples, count);
+        for (int i = old; i < count; i++) {
+            mSamples[i] = new Sample();
+        }
+    }
+
+    private static Sample selectBest(Sample[] samples, int count) {
+        long minRoundTrip = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            minRoundTrip = Math.min(minRoundTrip, samples[i].roundTripTime);
+        }
+        final long maxRoundTrip =
+                Math.max(minRoundTrip, 0) * MAX_ROUND_TRIP_FACTOR + ROUND_TRIP_SLACK_MS;
+        Sample best = null;
+        for (int i = 0; i < count; i++) {
+            Sample s = samples[i];
+            if (s.roundTripTime > maxRoundTrip) {
+                continue;
+            }
+            if (best == null || s.stratum < best.stratum
+                    || (s.stratum == best.stratum && s.roundTripTime < best.roundTripTime)) {
+                best = s;
+            }
+        }
+        return best;
     }
 
     /**
-     * Writes system time (milliseconds since January 1, 1970) as an NTP time stamp
-     * at the given offset in the buffer.
+     * RFC 5905 clock filter over @param count samples: selects the minimum
+     * delay sample and computes the filter dispersion and jitter, then saves
+     * the result.
      */
-    private void writeTimeStamp(byte[] buffer, int offset, long time) {
-        // Special case: zero means zero.
-        if (time == 0) {
-            Arrays.fill(buffer, offset, offset + 8, (byte) 0x00);
-            return;
+    private void clockFilter(Sample[] samples, int count) {
+        final long now = SystemClock.elapsedRealtime();
+        Arrays.sort(samples, 0, count, (a, b) -> Long.compare(a.roundTripTime, b.roundTripTime));
+        final Sample best = samples[0];
+
+        // Sample dispersion grows with age; weight each by 2^-(i+1) in delay order
+        double dispersion = 0;
+        double jitter = 0;
+        for (int i = 0; i < count; i++) {
+            final Sample s = samples[i];
+            final double age = now - s.ntpTimeReference;
+            dispersion += (s.dispersion + PHI * age) / (1L << Math.min(i + 1, 62));
+            final double d = s.clockOffset - best.clockOffset;
+            jitter += d * d;
+        }
+        jitter = count > 1 ? Math.sqrt(jitter / (count - 1)) : 0;
+
+        if (DBG) {
+            Log.d(TAG, "clock filter: " + count + " samples, round trip: "
+                    + best.roundTripTime + "ms, dispersion: " + dispersion
+                    + "ms, jitter: " + jitter + "ms");
         }
+        saveResult(best, dispersion, jitter);
+    }
 
-        long seconds = time / 1000L;
-        long milliseconds = time - seconds * 1000L;
-        seconds += OFFSET_1900_TO_1970;
-
-        // write seconds in big endian format
-        buffer[offset++] = (byte)(seconds >> 24);
-        buffer[offset++] = (byte)(seconds >> 16);
-        buffer[offset++] = (byte)(seconds >> 8);
-        buffer[offset++] = (byte)(seconds >> 0);
-
-        long fraction = milliseconds * 0x100000000L / 1000L;
-        // write fraction in big endian format
-        buffer[offset++] = (byte)(fraction >> 24);
-        buffer[offset++] = (byte)(fraction >> 16);
-        buffer[offset++] = (byte)(fraction >> 8);
-        // low order bits should be random data
-        buffer[offset++] = (byte)(Math.random() * 255.0);
+    private void saveResult(Sample sample, double dispersion, double jitter) {
+        // save our results - use the times on this side of the network latency
+        // (response rather than request time)
+        mNtpTime = sample.ntpTime;
+        mNtpTimeReference = sample.ntpTimeReference;
+        mRoundTripTime = sample.roundTripTime;
+        mDispersion = dispersion;
+        mJitter = jitter;
     }
 }
@@ -21,6 +21,15 @@
 
 package org.codeaurora.telephony.utils;
 
+import java.io.PrintWriter;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * Helper class for passing more arguments though a message
  * and avoiding allocation of a custom class for wrapping the
@@ -28,22 +37,47 @@ package org.codeaurora.telephony.utils;
  * it is responsibility of the client to recycle and instance
  * once it is no longer used.
  */
-public final class SomeArgs {
+public final class SomeArgs extends ArgsPool.Entry {
 
+    // Default cap for the shared stack; adaptive sizing may raise it
     private static final int MAX_POOL_SIZE = 10;
+    private static final int MAX_ADAPTIVE_POOL_SIZE = 128;
+
+    private static final ArgsPool<SomeArgs> sPool =
+            new ArgsPool<>("SomeArgs", MAX_POOL_SIZE, MAX_ADAPTIVE_POOL_SIZE, SomeArgs::new);
+
+    /** No leak or use-after-recycle tracking. */
+    public static final int LEAK_TRACKING_OFF = 0;
+    /** Track one in {@link #LEAK_SAMPLE_INTERVAL} obtained instances. */
+    public static final int LEAK_TRACKING_SAMPLED = 1;
+    /** Track every obtained instance; for debugging only. */
+    public static final int LEAK_TRACKING_FULL = 2;
 
-    private static SomeArgs sPool;
-    private static int sPoolSize;
-    private static Object sPoolLock = new Object();
+    private static final int LEAK_SAMPLE_INTERVAL = 1000;
+    private static final String TAG = "SomeArgs";
 
-    private SomeArgs mNext;
+    private static volatile int sLeakTracking = LEAK_TRACKING_SAMPLED;
+    private static final ReferenceQueue<SomeArgs> sCollected = new ReferenceQueue<>();
+    // Keeps trackers reachable until their instance is recycled or collected
+    private static final Set<Tracker> sTracked = ConcurrentHashMap.newKeySet();
+    private static final LongAdder sLeaks = new LongAdder();
+    private static final LongAdder sUseAfterRecycle = new LongAdder();
 
-    private boolean mInPool;
+    // Set while this instance is tracked for leaks
+    private Tracker mTracker;
+    // Where a tracked instance was last recycled
+    private Site mRecycledAt;
 
     static final int WAIT_NONE = 0;
     static final int WAIT_WAITING = 1;
     static final int WAIT_FINISHED = 2;
+    // The waiter gave up; whoever calls complete() recycles the instance
+    static final int WAIT_ABANDONED = 3;
     int mWaitState = WAIT_NONE;
+    // Bookkeeping for RequestRendezvous
+    String mWaitName;
+    long mWaitStartMillis;
+    CompletableFuture<SomeArgs> mFuture;
 
     public Object arg1;
     public Object arg2;
@@ -66,49 +100,144 @@ public final class SomeArgs {
     }
 
     public static SomeArgs obtain() {
-        synchronized (sPoolLock) {
-            if (sPoolSize > 0) {
-                SomeArgs args = sPool;
-                sPool = sPool.mNext;
-                args.mNext = null;
-                args.mInPool = false;
-                sPoolSize--;
-                return args;
-            } else {
-                return new SomeArgs();
-            }
+        SomeArgs args = sPool.obtain();
+        int tracking = sLeakTracking;
+        if (tracking != LEAK_TRACKING_OFF) {
+            track(args, tracking);
         }
+        return args;
     }
 
     public void complete() {
+        CompletableFuture<SomeArgs> future;
         synchronized (this) {
+            if (mWaitState == WAIT_ABANDONED) {
+                RequestRendezvous.untrack(this);
+                mWaitState = WAIT_NONE;
+                recycle();
+                return;
+            }
             if (mWaitState != WAIT_WAITING) {
                 throw new IllegalStateException("Not waiting");
             }
+            RequestRendezvous.untrack(this);
             mWaitState = WAIT_FINISHED;
+            future = mFuture;
             notifyAll();
         }
+        if (future != null) {
+            future.complete(this);
+        }
     }
 
     public void recycle() {
         if (mInPool) {
-            throw new IllegalStateException("Already recycled.");
+            throw new IllegalStateException("Already recycled.", mRecycledAt);
         }
         if (mWaitState != WAIT_NONE) {
             return;
         }
-        synchronized (sPoolLock) {
-            clear();
-            if (sPoolSize < MAX_POOL_SIZE) {
-                mNext = sPool;
-                mInPool = true;
-                sPool = this;
-                sPoolSize++;
+        Tracker tracker = mTracker;
+        if (tracker != null) {
+            mTracker = null;
+            sTracked.remove(tracker);
+            // A cleared reference is never enqueued, so this is not a leak
+            tracker.clear();
+            mRecycledAt = new Site("SomeArgs recycled here");
+        }
+        sPool.recycle(this);
+    }
+
+    /**
+     * When enabled, the shared pool follows the recent peak number of
+     * instances in use at once, up to {@link #MAX_ADAPTIVE_POOL_SIZE}, and
+     * shrinks back when demand falls.
+     */
+    public static void setAdaptivePoolSizing(boolean enabled) {
+        sPool.setAdaptiveSizing(enabled);
+    }
+
+    /**
+     * Sets how obtained instances are tracked for leaks and for writes
+     * made after recycle(). Sampled tracking is the default and costs one
+     * per-thread random draw for untracked instances.
+     */
+    public static void setLeakTracking(int mode) {
+        sLeakTracking = mode;
+    }
+
+    /** Returns how many tracked instances were collected without recycle(). */
+    public static long getLeakCount() {
+        return sLeaks.sum();
+    }
+
+    /** Returns how many tracked instances were modified after recycle(). */
+    public static long getUseAfterRecycleCount() {
+        return sUseAfterRecycle.sum();
+    }
+
+    /** Returns how many obtain() calls were served from the pool. */
+    public static long getPoolHits() {
+        return sPool.getHits();
+    }
+
+    /** Returns how many obtain() calls had to allocate. */
+    public static long getPoolMisses() {
+        return sPool.getMisses();
+    }
+
+    /** Returns how many CAS retries the shared stack has needed. */
+    public static long getPoolContention() {
+        return sPool.getContention();
+    }
+
+    public static void dumpPool(PrintWriter pw) {
+        sPool.dump(pw);
+        pw.println("SomeArgs tracking: mode=" + sLeakTracking + " outstanding="
+                + sTracked.size() + " leaks=" + getLeakCount()
+                + " useAfterRecycle=" + getUseAfterRecycleCount());
+    }
+
+    private static void track(SomeArgs args, int tracking) {
+        // Only set on pooled instances that were tracked when recycled
+        if (args.mRecycledAt != null) {
+            if (!args.isClear()) {
+                sUseAfterRecycle.increment();
+                Log.e(TAG, "SomeArgs modified after recycle()", args.mRecycledAt);
+                args.clear();
+            }
+            args.mRecycledAt = null;
+        }
+        if (tracking == LEAK_TRACKING_SAMPLED
+                && ThreadLocalRandom.current().nextInt(LEAK_SAMPLE_INTERVAL) != 0) {
+            return;
+        }
+        reportLeaks();
+        Tracker tracker = new Tracker(args);
+        args.mTracker = tracker;
+        sTracked.add(tracker);
+    }
+
+    /** Reports tracked instances that were collected without recycle(). */
+    private static void reportLeaks() {
+        Tracker tracker;
+        while ((tracker = (Tracker) sCollected.poll()) != null) {
+            if (sTracked.remove(tracker)) {
+                sLeaks.increment();
+                Log.e(TAG, "SomeArgs leaked, never recycled", tracker.mObtainedAt);
             }
         }
     }
 
-    private void clear() {
+    private boolean isClear() {
+        return arg1 == null && arg2 == null && arg3 == null && arg4 == null
+                && arg5 == null && arg6 == null && arg7 == null && arg8 == null
+                && arg9 == null && argi1 == 0 && argi2 == 0 && argi3 == 0
+                && argi4 == 0 && argi5 == 0 && argi6 == 0;
+    }
+
+    @Override
+    void clear() {
         arg1 = null;
         arg2 = null;
         arg3 = null;
@@ -116,11 +245,32 @@ public final class SomeArgs {
         arg5 = null;
         arg6 = null;
         arg7 = null;
+        arg8 = null;
+        arg9 = null;
         argi1 = 0;
         argi2 = 0;
         argi3 = 0;
         argi4 = 0;
         argi5 = 0;
         argi6 = 0;
+        mWaitName = null;
+        mFuture = null;
+    }
+
+    /** Records the stack of an obtain() or recycle() call. */
+    private static final class Site extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Site(String message) {
+            super(message);
+        }
+    }
+
+    private static final class Tracker extends WeakReference<SomeArgs> {
+        final Site mObtainedAt = new Site("SomeArgs obtained here");
+
+        Tracker(SomeArgs args) {
+            super(args, sCollected);
+        }
     }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2019, The Linux Foundation. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *     * Neither the name of The Linux Foundation nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.codeaurora.telephony.utils;
+
+import java.io.PrintWriter;
+
+/**
+ * Variant of {@link SomeArgs} for larger argument tuples, with more
+ * Object and int slots plus long and double slots.
+ * Pooled like {@link SomeArgs}; the client must recycle an instance once
+ * it is no longer used.
+ */
+public final class WideArgs extends ArgsPool.Entry {
+
+    private static final int MAX_POOL_SIZE = 10;
+
+    private static final ArgsPool<WideArgs> sPool =
+            new ArgsPool<>("WideArgs", MAX_POOL_SIZE, WideArgs::new);
+
+    public Object arg1;
+    public Object arg2;
+    public Object arg3;
+    public Object arg4;
+    public Object arg5;
+    public Object arg6;
+    public Object arg7;
+    public Object arg8;
+    public Object arg9;
+    public Object arg10;
+    public Object arg11;
+    public Object arg12;
+    public Object arg13;
+    public Object arg14;
+    public Object arg15;
+    public Object arg16;
+    public int argi1;
+    public int argi2;
+    public int argi3;
+    public int argi4;
+    public int argi5;
+    public int argi6;
+    public int argi7;
+    public int argi8;
+    public int argi9;
+    public int argi10;
+    public int argi11;
+    public int argi12;
+    public long argl1;
+    public long argl2;
+    public long argl3;
+    public long argl4;
+    public long argl5;
+    public long argl6;
+    public long argl7;
+    public long argl8;
+    public double argd1;
+    public double argd2;
+    public double argd3;
+    public double argd4;
+    public double argd5;
+    public double argd6;
+    public double argd7;
+    public double argd8;
+
+    private WideArgs() {
+        /* do nothing - reduce visibility */
+    }
+
+    public static WideArgs obtain() {
+        return sPool.obtain();
+    }
+
+    public void recycle() {
+        sPool.recycle(this);
+    }
+
+    public static void dumpPool(PrintWriter pw) {
+        sPool.dump(pw);
+    }
+
+    @Override
+    void clear() {
+        arg1 = null;
+        arg2 = null;
+        arg3 = null;
+        arg4 = null;
+        arg5 = null;
+        arg6 = null;
+        arg7 = null;
+        arg8 = null;
+        arg9 = null;
+        arg10 = null;
+        arg11 = null;
+        arg12 = null;
+        arg13 = null;
+        arg14 = null;
+        arg15 = null;
+        arg16 = null;
+        argi1 = 0;
+        argi2 = 0;
+        argi3 = 0;
+        argi4 = 0;
+        argi5 = 0;
+        argi6 = 0;
+        argi7 = 0;
+        argi8 = 0;
+        argi9 = 0;
+        argi10 = 0;
+        argi11 = 0;
+        argi12 = 0;
+        argl1 = 0L;
+        argl2 = 0L;
+        argl3 = 0L;
+        argl4 = 0L;
+        argl5 = 0L;
+        argl6 = 0L;
+        argl7 = 0L;
+        argl8 = 0L;
+        argd1 = 0.0;
+        argd2 = 0.0;
+        argd3 = 0.0;
+        argd4 = 0.0;
+        argd5 = 0.0;
+        argd6 = 0.0;
+        argd7 = 0.0;
+        argd8 = 0.0;
+    }
+}